@@ -0,0 +1,116 @@
+package benchmarks;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import carlstm.CarlSTM;
+import carlstm.Locking;
+import carlstm.TxHashMap;
+import examples.CoarseHashSet;
+import examples.FineHashSet;
+import examples.Set;
+import examples.TxHashSet;
+
+/**
+ * Throughput of the three {@link Set} implementations, and of a set on top of
+ * the resizable {@link TxHashMap}, under a mix of lookups and insertions of
+ * random keys. The sets cannot remove items, so an insertion only changes
+ * the set the first time its key is drawn; the set is filled with every other
+ * key of the key space beforehand, so that half the keys are present from the
+ * start.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SetBenchmark {
+	@Param({ "coarse", "fine", "tx", "txmap" })
+	public String set;
+
+	/**
+	 * Percentage of operations that are lookups, the rest being insertions
+	 */
+	@Param({ "50", "90", "100" })
+	public int readPercent;
+
+	/**
+	 * Number of distinct keys
+	 */
+	@Param({ "256", "4096" })
+	public int keySpace;
+
+	/**
+	 * Previous values kept by each bucket of the "tx" set, see
+	 * {@link TxHashSet#TxHashSet(Locking, int)}
+	 */
+	@Param({ "0" })
+	public int historyDepth;
+
+	private Set<Integer> items;
+
+	@Setup(Level.Trial)
+	public void fill() {
+		switch (set) {
+		case "coarse":
+			items = new CoarseHashSet<Integer>();
+			break;
+		case "fine":
+			items = new FineHashSet<Integer>();
+			break;
+		case "tx":
+			items = new TxHashSet<Integer>(Locking.LAZY, historyDepth);
+			break;
+		case "txmap":
+			items = new TxHashMapSet<Integer>();
+			break;
+		default:
+			throw new IllegalArgumentException("set: " + set);
+		}
+		for (int key = 0; key < keySpace; key += 2) {
+			items.add(key);
+		}
+	}
+
+	@Benchmark
+	public boolean operation() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		Integer key = random.nextInt(keySpace);
+		if (random.nextInt(100) < readPercent) {
+			return items.contains(key);
+		}
+		return items.add(key);
+	}
+
+	/**
+	 * A set of the keys of a {@link TxHashMap}, one transaction per operation
+	 * like {@link TxHashSet}
+	 */
+	private static final class TxHashMapSet<T> implements Set<T> {
+		private final TxHashMap<T, Boolean> map = new TxHashMap<T, Boolean>();
+
+		@Override
+		public boolean add(T x) {
+			return CarlSTM.execute(() -> map.putIfAbsent(x, Boolean.TRUE) == null);
+		}
+
+		@Override
+		public boolean contains(T x) {
+			return CarlSTM.executeReadOnly(() -> map.containsKey(x));
+		}
+	}
+}
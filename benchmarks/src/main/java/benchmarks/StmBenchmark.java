@@ -0,0 +1,123 @@
+package benchmarks;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import carlstm.CarlSTM;
+import carlstm.TxCounter;
+import carlstm.TxInt;
+import carlstm.TxObject;
+
+/**
+ * Throughput of single STM operations on a shared array of cells. Each
+ * transaction picks its cells at random, so fewer cells mean more conflicts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StmBenchmark {
+	/**
+	 * Number of shared cells
+	 */
+	@Param({ "16", "4096" })
+	public int cells;
+
+	/**
+	 * Number of cells each read and write transaction accesses
+	 */
+	@Param({ "1", "8" })
+	public int accesses;
+
+	private TxInt[] ints;
+	private TxObject<Integer>[] objects;
+	private TxCounter counter;
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	@Setup(Level.Trial)
+	public void create() {
+		ints = new TxInt[cells];
+		objects = new TxObject[cells];
+		for (int i = 0; i < cells; i++) {
+			ints[i] = new TxInt(i);
+			objects[i] = new TxObject<Integer>(i);
+		}
+		counter = new TxCounter();
+	}
+
+	@Benchmark
+	public Integer emptyTransaction() {
+		return CarlSTM.execute(() -> null);
+	}
+
+	@Benchmark
+	public int readInts() {
+		int first = ThreadLocalRandom.current().nextInt(cells);
+		return CarlSTM.execute(() -> {
+			int sum = 0;
+			for (int i = 0; i < accesses; i++) {
+				sum += ints[(first + i) % cells].read();
+			}
+			return sum;
+		});
+	}
+
+	@Benchmark
+	public int readIntsReadOnly() {
+		int first = ThreadLocalRandom.current().nextInt(cells);
+		return CarlSTM.executeReadOnly(() -> {
+			int sum = 0;
+			for (int i = 0; i < accesses; i++) {
+				sum += ints[(first + i) % cells].read();
+			}
+			return sum;
+		});
+	}
+
+	@Benchmark
+	public Integer incrementInts() {
+		int first = ThreadLocalRandom.current().nextInt(cells);
+		return CarlSTM.execute(() -> {
+			for (int i = 0; i < accesses; i++) {
+				TxInt cell = ints[(first + i) % cells];
+				cell.write(cell.read() + 1);
+			}
+			return null;
+		});
+	}
+
+	@Benchmark
+	public Integer incrementObjects() {
+		int first = ThreadLocalRandom.current().nextInt(cells);
+		return CarlSTM.execute(() -> {
+			for (int i = 0; i < accesses; i++) {
+				TxObject<Integer> cell = objects[(first + i) % cells];
+				cell.write(cell.read() + 1);
+			}
+			return null;
+		});
+	}
+
+	@Benchmark
+	public Integer incrementCounter() {
+		return CarlSTM.execute(() -> {
+			counter.increment();
+			return null;
+		});
+	}
+}
@@ -0,0 +1,57 @@
+package benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.profile.InternalProfiler;
+import org.openjdk.jmh.results.AggregationPolicy;
+import org.openjdk.jmh.results.IterationResult;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.ScalarResult;
+
+import carlstm.AbortCause;
+import carlstm.StmStatistics;
+
+/**
+ * Reports the commits and aborts of the transactions run during each
+ * iteration, from {@link StmStatistics}. Enable with
+ * {@code -prof benchmarks.StmProfiler}.
+ */
+public class StmProfiler implements InternalProfiler {
+	private StmStatistics before;
+
+	@Override
+	public String getDescription() {
+		return "CarlSTM commits and aborts";
+	}
+
+	@Override
+	public void beforeIteration(BenchmarkParams benchmarkParams, IterationParams iterationParams) {
+		before = StmStatistics.snapshot();
+	}
+
+	// InternalProfiler declares its results with the raw Result type
+	@SuppressWarnings("rawtypes")
+	@Override
+	public Collection<? extends Result> afterIteration(BenchmarkParams benchmarkParams,
+			IterationParams iterationParams, IterationResult result) {
+		StmStatistics after = StmStatistics.snapshot();
+		long commits = after.getCommits() - before.getCommits();
+		long aborts = after.getAborts() - before.getAborts();
+		List<Result> results = new ArrayList<Result>();
+		results.add(new ScalarResult("stm.commits", commits, "#", AggregationPolicy.SUM));
+		results.add(new ScalarResult("stm.aborts", aborts, "#", AggregationPolicy.SUM));
+		results.add(new ScalarResult("stm.abortRate", commits + aborts == 0 ? 0 : 100.0 * aborts / (commits + aborts),
+				"%", AggregationPolicy.AVG));
+		for (AbortCause cause : AbortCause.values()) {
+			long count = after.getAborts(cause) - before.getAborts(cause);
+			if (count > 0) {
+				results.add(new ScalarResult("stm.aborts." + cause.name(), count, "#", AggregationPolicy.SUM));
+			}
+		}
+		return results;
+	}
+}
@@ -0,0 +1,27 @@
+package benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Run the benchmarks once per thread count, with the abort rate from
+ * {@link StmProfiler} and the allocation rate from JMH's GC profiler. JMH
+ * takes a single thread count per run, hence this loop.
+ *
+ * Usage: java -Dthreads=1,2,4,8 -cp benchmarks.jar benchmarks.ThreadSweep
+ * [JMH options]
+ */
+public class ThreadSweep {
+
+	public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+		CommandLineOptions options = new CommandLineOptions(args);
+		for (String threads : System.getProperty("threads", "1,2,4,8").split(",")) {
+			new Runner(new OptionsBuilder().parent(options).threads(Integer.parseInt(threads.trim()))
+					.addProfiler(StmProfiler.class).addProfiler(GCProfiler.class).build()).run();
+		}
+	}
+}
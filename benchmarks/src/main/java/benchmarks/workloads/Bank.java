@@ -0,0 +1,78 @@
+package benchmarks.workloads;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import carlstm.CarlSTM;
+import carlstm.TxLong;
+
+/**
+ * Transfers between random accounts, with an occasional audit that sums every
+ * account in a read-only transaction. Transfers never create or destroy
+ * money, so every audit and the final check must see the initial total.
+ */
+class Bank extends Workload {
+	private static final long INITIAL_BALANCE = 1000;
+	// Percentage of operations that are audits
+	private static final int AUDIT_PERCENT = 1;
+
+	private TxLong[] accounts;
+	private volatile String auditFailure;
+
+	@Override
+	void build(Contention contention) {
+		switch (contention) {
+		case HIGH:
+			accounts = new TxLong[64];
+			break;
+		case MEDIUM:
+			accounts = new TxLong[1024];
+			break;
+		default:
+			accounts = new TxLong[16384];
+			break;
+		}
+		for (int i = 0; i < accounts.length; i++) {
+			accounts[i] = new TxLong(INITIAL_BALANCE);
+		}
+	}
+
+	@Override
+	void operation(ThreadLocalRandom random) {
+		if (random.nextInt(100) < AUDIT_PERCENT) {
+			long total = CarlSTM.executeReadOnly(() -> {
+				long sum = 0;
+				for (TxLong account : accounts) {
+					sum += account.read();
+				}
+				return sum;
+			});
+			if (total != INITIAL_BALANCE * accounts.length) {
+				auditFailure = "audit saw " + total;
+			}
+			return;
+		}
+		TxLong from = accounts[random.nextInt(accounts.length)];
+		TxLong to = accounts[random.nextInt(accounts.length)];
+		long amount = 1 + random.nextInt(100);
+		execute(() -> {
+			long balance = from.read();
+			if (balance >= amount && from != to) {
+				from.write(balance - amount);
+				to.write(to.read() + amount);
+			}
+			return null;
+		});
+	}
+
+	@Override
+	String check() {
+		if (auditFailure != null) {
+			return auditFailure;
+		}
+		long total = 0;
+		for (TxLong account : accounts) {
+			total += account.getTrueValue();
+		}
+		return total == INITIAL_BALANCE * accounts.length ? null : "total " + total;
+	}
+}
@@ -0,0 +1,134 @@
+package benchmarks.workloads;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import carlstm.ContentionManager;
+import carlstm.Isolation;
+import carlstm.Locking;
+import carlstm.StmStatistics;
+import carlstm.TxOptions;
+
+/**
+ * Run the STAMP-style workloads for a while at several thread counts and
+ * report, for each run, the operations and commits per second, the share of
+ * attempts that aborted and percentiles of the transaction latency, from the
+ * first attempt to the commit. Latencies come from {@link StmStatistics} and
+ * are accurate to within a factor of two. After each run the workload checks
+ * its data.
+ *
+ * Usage: java -cp benchmarks.jar benchmarks.workloads.Harness [name=value]...
+ * with
+ * <ul>
+ * <li>workload: bank, vacation, kmeans, intruder or all (all)</li>
+ * <li>threads: comma-separated thread counts (1,2,4,8)</li>
+ * <li>contention: low, medium or high (medium)</li>
+ * <li>seconds: measured time of each run (5)</li>
+ * <li>warmup: unmeasured time before each run (2)</li>
+ * <li>cm: contention manager, e.g. Polite or Karma (Polite)</li>
+ * <li>isolation: serializable or snapshot (serializable)</li>
+ * <li>locking: lazy or eager (lazy)</li>
+ * </ul>
+ */
+public class Harness {
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> config = new LinkedHashMap<String, String>();
+		config.put("workload", "all");
+		config.put("threads", "1,2,4,8");
+		config.put("contention", "medium");
+		config.put("seconds", "5");
+		config.put("warmup", "2");
+		config.put("cm", "Polite");
+		config.put("isolation", "serializable");
+		config.put("locking", "lazy");
+		for (String arg : args) {
+			int equals = arg.indexOf('=');
+			if (equals < 0 || !config.containsKey(arg.substring(0, equals))) {
+				throw new IllegalArgumentException("unknown argument " + arg + ", expected one of " + config.keySet());
+			}
+			config.put(arg.substring(0, equals), arg.substring(equals + 1));
+		}
+		String[] workloads = config.get("workload").equals("all")
+				? new String[] { "bank", "vacation", "kmeans", "intruder" }
+				: config.get("workload").split(",");
+		Workload.Contention contention = Workload.Contention.valueOf(config.get("contention").toUpperCase());
+		long seconds = Long.parseLong(config.get("seconds"));
+		long warmup = Long.parseLong(config.get("warmup"));
+		System.out.println(config);
+		System.out.printf("%-9s %7s %12s %12s %7s %10s %10s %10s  %s%n", "workload", "threads", "ops/s", "commits/s",
+				"aborts", "p50 us", "p99 us", "p99.9 us", "check");
+		for (String name : workloads) {
+			for (String threads : config.get("threads").split(",")) {
+				Workload workload = create(name.trim());
+				workload.setUp(contention, options(config));
+				run(name.trim(), workload, Integer.parseInt(threads.trim()), warmup, seconds);
+			}
+		}
+	}
+
+	private static Workload create(String name) {
+		switch (name) {
+		case "bank":
+			return new Bank();
+		case "vacation":
+			return new Vacation();
+		case "kmeans":
+			return new KMeans();
+		case "intruder":
+			return new Intruder();
+		default:
+			throw new IllegalArgumentException("unknown workload " + name);
+		}
+	}
+
+	private static TxOptions options(Map<String, String> config) throws ReflectiveOperationException {
+		ContentionManager contentionManager = (ContentionManager) Class
+				.forName("carlstm." + config.get("cm") + "ContentionManager").getDeclaredConstructor().newInstance();
+		return new TxOptions().setContentionManager(contentionManager)
+				.setIsolation(Isolation.valueOf(config.get("isolation").toUpperCase()))
+				.setLocking(Locking.valueOf(config.get("locking").toUpperCase()));
+	}
+
+	/**
+	 * Run a workload and print its line of results
+	 */
+	private static void run(String name, Workload workload, int threads, long warmup, long seconds)
+			throws InterruptedException {
+		LongAdder operations = new LongAdder();
+		AtomicBoolean stop = new AtomicBoolean();
+		Thread[] workers = new Thread[threads];
+		for (int i = 0; i < threads; i++) {
+			workers[i] = new Thread(() -> {
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				while (!stop.get()) {
+					workload.operation(random);
+					operations.increment();
+				}
+			});
+			workers[i].start();
+		}
+		Thread.sleep(warmup * 1000);
+		long startOperations = operations.sum();
+		StmStatistics start = StmStatistics.snapshot();
+		long startTime = System.nanoTime();
+		Thread.sleep(seconds * 1000);
+		StmStatistics measured = StmStatistics.snapshot().since(start);
+		double elapsed = (System.nanoTime() - startTime) / 1e9;
+		long done = operations.sum() - startOperations;
+		stop.set(true);
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		long attempts = measured.getCommits() + measured.getAborts();
+		String check = workload.check();
+		System.out.printf("%-9s %7d %12.0f %12.0f %6.2f%% %10.1f %10.1f %10.1f  %s%n", name, threads, done / elapsed,
+				measured.getCommits() / elapsed, attempts == 0 ? 0 : 100.0 * measured.getAborts() / attempts,
+				measured.getTransactionLatency().getPercentile(50) / 1e3,
+				measured.getTransactionLatency().getPercentile(99) / 1e3,
+				measured.getTransactionLatency().getPercentile(99.9) / 1e3, check == null ? "ok" : check);
+	}
+}
@@ -0,0 +1,133 @@
+package benchmarks.workloads;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Network intrusion detection in the style of STAMP's intruder. Packets of
+ * many flows arrive out of order; each thread takes the next packet and, in
+ * a transaction, records it in a red-black tree of partly reassembled flows.
+ * The packet that completes a flow removes it from the tree, and the thread
+ * then scans the whole flow outside the transaction.
+ * Fewer flows in flight mean a smaller tree, where more insertions and
+ * removals rebalance the same nodes.
+ */
+class Intruder extends Workload {
+	private static final int MAX_PACKETS_PER_FLOW = 8;
+
+	/**
+	 * The packets received so far of a flow. Immutable.
+	 */
+	private static final class Assembly {
+		final int received;
+		final long checksum;
+
+		Assembly(int received, long checksum) {
+			this.received = received;
+			this.checksum = checksum;
+		}
+	}
+
+	private int flows;
+	// One round of packets: flow number and packet number, shuffled
+	private int[] roundFlows;
+	private int[] roundPackets;
+	private final AtomicLong next = new AtomicLong();
+	private final TxRedBlackTree<Assembly> assemblies = new TxRedBlackTree<Assembly>();
+	private volatile String failure;
+
+	@Override
+	void build(Contention contention) {
+		switch (contention) {
+		case HIGH:
+			flows = 16;
+			break;
+		case MEDIUM:
+			flows = 256;
+			break;
+		default:
+			flows = 4096;
+			break;
+		}
+		int total = 0;
+		for (int flow = 0; flow < flows; flow++) {
+			total += packetsOf(flow);
+		}
+		roundFlows = new int[total];
+		roundPackets = new int[total];
+		int i = 0;
+		for (int flow = 0; flow < flows; flow++) {
+			for (int packet = 0; packet < packetsOf(flow); packet++) {
+				roundFlows[i] = flow;
+				roundPackets[i] = packet;
+				i++;
+			}
+		}
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		for (i = total - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			int flow = roundFlows[i];
+			int packet = roundPackets[i];
+			roundFlows[i] = roundFlows[j];
+			roundPackets[i] = roundPackets[j];
+			roundFlows[j] = flow;
+			roundPackets[j] = packet;
+		}
+	}
+
+	private static int packetsOf(int flow) {
+		return 1 + flow % MAX_PACKETS_PER_FLOW;
+	}
+
+	private static long payloadOf(long key, int packet) {
+		long x = key * 0x9E3779B97F4A7C15L + packet;
+		x ^= x >>> 31;
+		return x * 0xBF58476D1CE4E5B9L;
+	}
+
+	@Override
+	void operation(ThreadLocalRandom random) {
+		long index = next.getAndIncrement();
+		int i = (int) (index % roundFlows.length);
+		int flow = roundFlows[i];
+		int packet = roundPackets[i];
+		// Every round reuses the flows under new keys
+		long key = index / roundFlows.length * flows + flow;
+		long payload = payloadOf(key, packet);
+		Assembly complete = execute(() -> {
+			Assembly assembly = assemblies.get(key);
+			Assembly updated = assembly == null ? new Assembly(1, payload)
+					: new Assembly(assembly.received + 1, assembly.checksum + payload);
+			if (updated.received == packetsOf(flow)) {
+				assemblies.remove(key);
+				return updated;
+			}
+			assemblies.put(key, updated);
+			return null;
+		});
+		if (complete != null) {
+			scan(key, flow, complete);
+		}
+	}
+
+	/**
+	 * Scan a reassembled flow, checking that it holds every packet once
+	 */
+	private void scan(long key, int flow, Assembly assembly) {
+		long checksum = 0;
+		for (int packet = 0; packet < packetsOf(flow); packet++) {
+			checksum += payloadOf(key, packet);
+		}
+		if (checksum != assembly.checksum) {
+			failure = "flow " + key + " reassembled wrong";
+		}
+	}
+
+	@Override
+	String check() {
+		if (failure != null) {
+			return failure;
+		}
+		return execute(() -> assemblies.check());
+	}
+}
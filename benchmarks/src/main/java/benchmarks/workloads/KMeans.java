@@ -0,0 +1,145 @@
+package benchmarks.workloads;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import carlstm.TxDouble;
+import carlstm.TxInt;
+
+/**
+ * K-means clustering in the style of STAMP's kmeans. Threads take points in
+ * turn, find the nearest center and add the point to that cluster's running
+ * sums in a transaction. The thread that takes the last point of a pass
+ * replaces the centers with the means of their clusters and starts the sums
+ * over. Fewer clusters mean more threads adding to the same sums.
+ */
+class KMeans extends Workload {
+	private static final int POINTS = 16384;
+	private static final int DIMENSIONS = 8;
+
+	private double[][] points;
+	// Replaced as a whole at the end of each pass
+	private volatile double[][] centers;
+	private TxDouble[][] sums;
+	private TxInt[] counts;
+	private final AtomicLong next = new AtomicLong();
+
+	@Override
+	void build(Contention contention) {
+		int clusters;
+		switch (contention) {
+		case HIGH:
+			clusters = 4;
+			break;
+		case MEDIUM:
+			clusters = 16;
+			break;
+		default:
+			clusters = 64;
+			break;
+		}
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		// Points scattered around twice as many hidden centers as clusters
+		double[][] hidden = new double[clusters * 2][DIMENSIONS];
+		for (double[] center : hidden) {
+			for (int d = 0; d < DIMENSIONS; d++) {
+				center[d] = random.nextDouble() * 100;
+			}
+		}
+		points = new double[POINTS][DIMENSIONS];
+		for (double[] point : points) {
+			double[] center = hidden[random.nextInt(hidden.length)];
+			for (int d = 0; d < DIMENSIONS; d++) {
+				point[d] = center[d] + random.nextGaussian() * 5;
+			}
+		}
+		double[][] initial = new double[clusters][];
+		sums = new TxDouble[clusters][DIMENSIONS];
+		counts = new TxInt[clusters];
+		for (int c = 0; c < clusters; c++) {
+			initial[c] = points[c].clone();
+			for (int d = 0; d < DIMENSIONS; d++) {
+				sums[c][d] = new TxDouble(0);
+			}
+			counts[c] = new TxInt(0);
+		}
+		centers = initial;
+	}
+
+	@Override
+	void operation(ThreadLocalRandom random) {
+		long index = next.getAndIncrement();
+		double[] point = points[(int) (index % POINTS)];
+		int cluster = nearest(centers, point);
+		execute(() -> {
+			for (int d = 0; d < DIMENSIONS; d++) {
+				sums[cluster][d].write(sums[cluster][d].read() + point[d]);
+			}
+			counts[cluster].write(counts[cluster].read() + 1);
+			return null;
+		});
+		if (index % POINTS == POINTS - 1) {
+			recenter();
+		}
+	}
+
+	/**
+	 * Move every center to the mean of its cluster and start the sums over
+	 */
+	private void recenter() {
+		double[][] old = centers;
+		centers = execute(() -> {
+			double[][] moved = new double[old.length][];
+			for (int c = 0; c < old.length; c++) {
+				int count = counts[c].read();
+				moved[c] = old[c].clone();
+				for (int d = 0; d < DIMENSIONS; d++) {
+					if (count > 0) {
+						moved[c][d] = sums[c][d].read() / count;
+					}
+					sums[c][d].write(0);
+				}
+				counts[c].write(0);
+			}
+			return moved;
+		});
+	}
+
+	private static int nearest(double[][] centers, double[] point) {
+		int best = 0;
+		double bestDistance = Double.MAX_VALUE;
+		for (int c = 0; c < centers.length; c++) {
+			double distance = 0;
+			for (int d = 0; d < DIMENSIONS; d++) {
+				double delta = centers[c][d] - point[d];
+				distance += delta * delta;
+			}
+			if (distance < bestDistance) {
+				best = c;
+				bestDistance = distance;
+			}
+		}
+		return best;
+	}
+
+	@Override
+	String check() {
+		// Points of one pass may be added after the recentering that ends
+		// it, so the counts only add up to about one pass
+		long total = 0;
+		for (TxInt count : counts) {
+			total += count.getTrueValue();
+		}
+		if (total < 0 || total > next.get()) {
+			return total + " points in the clusters";
+		}
+		for (double[] center : centers) {
+			for (double coordinate : center) {
+				if (Double.isNaN(coordinate)) {
+					return "NaN center";
+				}
+			}
+		}
+		return null;
+	}
+}
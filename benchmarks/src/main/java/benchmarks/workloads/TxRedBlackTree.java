@@ -0,0 +1,372 @@
+package benchmarks.workloads;
+
+import carlstm.NoActiveTransactionException;
+import carlstm.TransactionAbortedException;
+import carlstm.TxInt;
+import carlstm.TxLong;
+import carlstm.TxObject;
+
+/**
+ * A red-black tree map from long keys, every field of which is transactional.
+ * The algorithms are those of java.util.TreeMap. All methods must be called
+ * inside a transaction.
+ *
+ * @param <V>
+ *            type of the values
+ */
+class TxRedBlackTree<V> {
+	private static final int RED = 0;
+	private static final int BLACK = 1;
+
+	private static final class Node<V> {
+		// Deleting a node with two children moves its successor's entry
+		// into it, so the key is transactional too
+		final TxLong key;
+		final TxObject<V> value;
+		final TxObject<Node<V>> left = new TxObject<Node<V>>(null);
+		final TxObject<Node<V>> right = new TxObject<Node<V>>(null);
+		final TxObject<Node<V>> parent;
+		final TxInt color = new TxInt(BLACK);
+
+		Node(long key, V value, Node<V> parent) {
+			this.key = new TxLong(key);
+			this.value = new TxObject<V>(value);
+			this.parent = new TxObject<Node<V>>(parent);
+		}
+	}
+
+	private final TxObject<Node<V>> root = new TxObject<Node<V>>(null);
+
+	/**
+	 * @param key
+	 * @return the value of the key, or null if it is absent
+	 */
+	V get(long key) throws NoActiveTransactionException, TransactionAbortedException {
+		Node<V> node = find(key);
+		return node == null ? null : node.value.read();
+	}
+
+	/**
+	 * Map a key to a value
+	 *
+	 * @param key
+	 * @param value
+	 */
+	void put(long key, V value) throws NoActiveTransactionException, TransactionAbortedException {
+		Node<V> parent = null;
+		Node<V> node = root.read();
+		long parentKey = 0;
+		while (node != null) {
+			parent = node;
+			parentKey = node.key.read();
+			if (key < parentKey) {
+				node = node.left.read();
+			} else if (key > parentKey) {
+				node = node.right.read();
+			} else {
+				node.value.write(value);
+				return;
+			}
+		}
+		Node<V> added = new Node<V>(key, value, parent);
+		if (parent == null) {
+			root.write(added);
+		} else if (key < parentKey) {
+			parent.left.write(added);
+		} else {
+			parent.right.write(added);
+		}
+		fixAfterInsertion(added);
+	}
+
+	/**
+	 * Remove a key
+	 *
+	 * @param key
+	 * @return true if it was present
+	 */
+	boolean remove(long key) throws NoActiveTransactionException, TransactionAbortedException {
+		Node<V> node = find(key);
+		if (node == null) {
+			return false;
+		}
+		delete(node);
+		return true;
+	}
+
+	/**
+	 * Check the order and the red-black properties
+	 *
+	 * @return a description of the first violation found, or null
+	 */
+	String check() throws NoActiveTransactionException, TransactionAbortedException {
+		Node<V> top = root.read();
+		if (top != null && top.parent.read() != null) {
+			return "root has a parent";
+		}
+		if (colorOf(top) == RED) {
+			return "red root";
+		}
+		try {
+			blackHeight(top, Long.MIN_VALUE, Long.MAX_VALUE);
+			return null;
+		} catch (IllegalStateException e) {
+			return e.getMessage();
+		}
+	}
+
+	/**
+	 * @return number of black nodes on every path from the node down
+	 * @throws IllegalStateException
+	 *             if the subtree breaks a property
+	 */
+	private int blackHeight(Node<V> node, long low, long high)
+			throws NoActiveTransactionException, TransactionAbortedException {
+		if (node == null) {
+			return 1;
+		}
+		long key = node.key.read();
+		if (key < low || key > high) {
+			throw new IllegalStateException("key " + key + " out of order");
+		}
+		Node<V> left = node.left.read();
+		Node<V> right = node.right.read();
+		if ((left != null && left.parent.read() != node) || (right != null && right.parent.read() != node)) {
+			throw new IllegalStateException("wrong parent below " + key);
+		}
+		if (node.color.read() == RED && (colorOf(left) == RED || colorOf(right) == RED)) {
+			throw new IllegalStateException("red node " + key + " has a red child");
+		}
+		int leftHeight = blackHeight(left, low, key - 1);
+		if (leftHeight != blackHeight(right, key + 1, high)) {
+			throw new IllegalStateException("unbalanced below " + key);
+		}
+		return leftHeight + (node.color.read() == BLACK ? 1 : 0);
+	}
+
+	private Node<V> find(long key) throws NoActiveTransactionException, TransactionAbortedException {
+		Node<V> node = root.read();
+		while (node != null) {
+			long nodeKey = node.key.read();
+			if (key < nodeKey) {
+				node = node.left.read();
+			} else if (key > nodeKey) {
+				node = node.right.read();
+			} else {
+				return node;
+			}
+		}
+		return null;
+	}
+
+	private void delete(Node<V> node) throws NoActiveTransactionException, TransactionAbortedException {
+		// If strictly internal, copy the successor's entry into the node
+		// and delete the successor instead
+		if (node.left.read() != null && node.right.read() != null) {
+			Node<V> successor = node.right.read();
+			for (Node<V> left = successor.left.read(); left != null; left = left.left.read()) {
+				successor = left;
+			}
+			node.key.write(successor.key.read());
+			node.value.write(successor.value.read());
+			node = successor;
+		}
+		Node<V> replacement = node.left.read() != null ? node.left.read() : node.right.read();
+		Node<V> parent = node.parent.read();
+		if (replacement != null) {
+			replacement.parent.write(parent);
+			replaceChild(parent, node, replacement);
+			node.left.write(null);
+			node.right.write(null);
+			node.parent.write(null);
+			if (node.color.read() == BLACK) {
+				fixAfterDeletion(replacement);
+			}
+		} else if (parent == null) {
+			root.write(null);
+		} else {
+			// No children: use the node itself as the phantom replacement
+			if (node.color.read() == BLACK) {
+				fixAfterDeletion(node);
+			}
+			parent = node.parent.read();
+			if (parent != null) {
+				if (parent.left.read() == node) {
+					parent.left.write(null);
+				} else if (parent.right.read() == node) {
+					parent.right.write(null);
+				}
+				node.parent.write(null);
+			}
+		}
+	}
+
+	/**
+	 * Make a child of a parent, or the root, point to another node
+	 */
+	private void replaceChild(Node<V> parent, Node<V> child, Node<V> replacement)
+			throws NoActiveTransactionException, TransactionAbortedException {
+		if (parent == null) {
+			root.write(replacement);
+		} else if (parent.left.read() == child) {
+			parent.left.write(replacement);
+		} else {
+			parent.right.write(replacement);
+		}
+	}
+
+	private void fixAfterInsertion(Node<V> x) throws NoActiveTransactionException, TransactionAbortedException {
+		x.color.write(RED);
+		while (x != null && x != root.read() && colorOf(parentOf(x)) == RED) {
+			Node<V> parent = parentOf(x);
+			Node<V> grandparent = parentOf(parent);
+			if (parent == leftOf(grandparent)) {
+				Node<V> uncle = rightOf(grandparent);
+				if (colorOf(uncle) == RED) {
+					setColor(parent, BLACK);
+					setColor(uncle, BLACK);
+					setColor(grandparent, RED);
+					x = grandparent;
+				} else {
+					if (x == rightOf(parent)) {
+						x = parent;
+						rotateLeft(x);
+					}
+					setColor(parentOf(x), BLACK);
+					setColor(parentOf(parentOf(x)), RED);
+					rotateRight(parentOf(parentOf(x)));
+				}
+			} else {
+				Node<V> uncle = leftOf(grandparent);
+				if (colorOf(uncle) == RED) {
+					setColor(parent, BLACK);
+					setColor(uncle, BLACK);
+					setColor(grandparent, RED);
+					x = grandparent;
+				} else {
+					if (x == leftOf(parent)) {
+						x = parent;
+						rotateRight(x);
+					}
+					setColor(parentOf(x), BLACK);
+					setColor(parentOf(parentOf(x)), RED);
+					rotateLeft(parentOf(parentOf(x)));
+				}
+			}
+		}
+		root.read().color.write(BLACK);
+	}
+
+	private void fixAfterDeletion(Node<V> x) throws NoActiveTransactionException, TransactionAbortedException {
+		while (x != root.read() && colorOf(x) == BLACK) {
+			if (x == leftOf(parentOf(x))) {
+				Node<V> sibling = rightOf(parentOf(x));
+				if (colorOf(sibling) == RED) {
+					setColor(sibling, BLACK);
+					setColor(parentOf(x), RED);
+					rotateLeft(parentOf(x));
+					sibling = rightOf(parentOf(x));
+				}
+				if (colorOf(leftOf(sibling)) == BLACK && colorOf(rightOf(sibling)) == BLACK) {
+					setColor(sibling, RED);
+					x = parentOf(x);
+				} else {
+					if (colorOf(rightOf(sibling)) == BLACK) {
+						setColor(leftOf(sibling), BLACK);
+						setColor(sibling, RED);
+						rotateRight(sibling);
+						sibling = rightOf(parentOf(x));
+					}
+					setColor(sibling, colorOf(parentOf(x)));
+					setColor(parentOf(x), BLACK);
+					setColor(rightOf(sibling), BLACK);
+					rotateLeft(parentOf(x));
+					x = root.read();
+				}
+			} else {
+				Node<V> sibling = leftOf(parentOf(x));
+				if (colorOf(sibling) == RED) {
+					setColor(sibling, BLACK);
+					setColor(parentOf(x), RED);
+					rotateRight(parentOf(x));
+					sibling = leftOf(parentOf(x));
+				}
+				if (colorOf(rightOf(sibling)) == BLACK && colorOf(leftOf(sibling)) == BLACK) {
+					setColor(sibling, RED);
+					x = parentOf(x);
+				} else {
+					if (colorOf(leftOf(sibling)) == BLACK) {
+						setColor(rightOf(sibling), BLACK);
+						setColor(sibling, RED);
+						rotateLeft(sibling);
+						sibling = leftOf(parentOf(x));
+					}
+					setColor(sibling, colorOf(parentOf(x)));
+					setColor(parentOf(x), BLACK);
+					setColor(leftOf(sibling), BLACK);
+					rotateRight(parentOf(x));
+					x = root.read();
+				}
+			}
+		}
+		setColor(x, BLACK);
+	}
+
+	private void rotateLeft(Node<V> p) throws NoActiveTransactionException, TransactionAbortedException {
+		if (p == null) {
+			return;
+		}
+		Node<V> r = p.right.read();
+		Node<V> middle = r.left.read();
+		p.right.write(middle);
+		if (middle != null) {
+			middle.parent.write(p);
+		}
+		Node<V> parent = p.parent.read();
+		r.parent.write(parent);
+		replaceChild(parent, p, r);
+		r.left.write(p);
+		p.parent.write(r);
+	}
+
+	private void rotateRight(Node<V> p) throws NoActiveTransactionException, TransactionAbortedException {
+		if (p == null) {
+			return;
+		}
+		Node<V> l = p.left.read();
+		Node<V> middle = l.right.read();
+		p.left.write(middle);
+		if (middle != null) {
+			middle.parent.write(p);
+		}
+		Node<V> parent = p.parent.read();
+		l.parent.write(parent);
+		replaceChild(parent, p, l);
+		l.right.write(p);
+		p.parent.write(l);
+	}
+
+	// Null-tolerant accessors, a missing node being a black leaf
+
+	private int colorOf(Node<V> node) throws NoActiveTransactionException, TransactionAbortedException {
+		return node == null ? BLACK : node.color.read();
+	}
+
+	private void setColor(Node<V> node, int color) throws NoActiveTransactionException, TransactionAbortedException {
+		if (node != null) {
+			node.color.write(color);
+		}
+	}
+
+	private Node<V> parentOf(Node<V> node) throws NoActiveTransactionException, TransactionAbortedException {
+		return node == null ? null : node.parent.read();
+	}
+
+	private Node<V> leftOf(Node<V> node) throws NoActiveTransactionException, TransactionAbortedException {
+		return node == null ? null : node.left.read();
+	}
+
+	private Node<V> rightOf(Node<V> node) throws NoActiveTransactionException, TransactionAbortedException {
+		return node == null ? null : node.right.read();
+	}
+}
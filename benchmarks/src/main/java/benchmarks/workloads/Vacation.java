@@ -0,0 +1,184 @@
+package benchmarks.workloads;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import carlstm.NoActiveTransactionException;
+import carlstm.TransactionAbortedException;
+import carlstm.TxObject;
+
+/**
+ * A travel reservation system in the style of STAMP's vacation: tables of
+ * cars, flights and rooms, each row with a capacity, a number of seats taken
+ * and a price, and customers holding lists of reservations. Clients book the
+ * most expensive available item among a few they look at in each table,
+ * cancel all the reservations of a customer, or change the capacity and
+ * price of a few rows. Every seat taken must belong to exactly one
+ * reservation.
+ */
+class Vacation extends Workload {
+	private static final int TABLES = 3;
+	// Rows looked at by a booking
+	private static final int QUERIES = 4;
+	private static final int BOOK_PERCENT = 80;
+	private static final int CANCEL_PERCENT = 10;
+
+	/**
+	 * A row of a table. Immutable: an update writes a new row.
+	 */
+	private static final class Row {
+		final int capacity;
+		final int taken;
+		final int price;
+
+		Row(int capacity, int taken, int price) {
+			this.capacity = capacity;
+			this.taken = taken;
+			this.price = price;
+		}
+	}
+
+	/**
+	 * A customer's list of reservations. Immutable.
+	 */
+	private static final class Reservation {
+		final int table;
+		final int row;
+		final Reservation next;
+
+		Reservation(int table, int row, Reservation next) {
+			this.table = table;
+			this.row = row;
+			this.next = next;
+		}
+	}
+
+	private TxObject<Row>[][] tables;
+	private TxObject<Reservation>[] customers;
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	@Override
+	void build(Contention contention) {
+		int rows;
+		switch (contention) {
+		case HIGH:
+			rows = 16;
+			break;
+		case MEDIUM:
+			rows = 1024;
+			break;
+		default:
+			rows = 65536;
+			break;
+		}
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		tables = new TxObject[TABLES][rows];
+		for (TxObject<Row>[] table : tables) {
+			for (int i = 0; i < rows; i++) {
+				table[i] = new TxObject<Row>(new Row(100 + random.nextInt(100), 0, 50 + random.nextInt(500)));
+			}
+		}
+		customers = new TxObject[rows];
+		for (int i = 0; i < rows; i++) {
+			customers[i] = new TxObject<Reservation>(null);
+		}
+	}
+
+	@Override
+	void operation(ThreadLocalRandom random) {
+		int choice = random.nextInt(100);
+		if (choice < BOOK_PERCENT) {
+			int customer = random.nextInt(customers.length);
+			int[][] queries = new int[TABLES][QUERIES];
+			for (int[] query : queries) {
+				for (int i = 0; i < QUERIES; i++) {
+					query[i] = random.nextInt(customers.length);
+				}
+			}
+			execute(() -> {
+				book(customers[customer], queries);
+				return null;
+			});
+		} else if (choice < BOOK_PERCENT + CANCEL_PERCENT) {
+			int customer = random.nextInt(customers.length);
+			execute(() -> {
+				cancel(customers[customer]);
+				return null;
+			});
+		} else {
+			int table = random.nextInt(TABLES);
+			int[] rows = new int[QUERIES];
+			int[] changes = new int[QUERIES];
+			for (int i = 0; i < QUERIES; i++) {
+				rows[i] = random.nextInt(customers.length);
+				changes[i] = random.nextInt(21) - 10;
+			}
+			execute(() -> {
+				for (int i = 0; i < QUERIES; i++) {
+					TxObject<Row> row = tables[table][rows[i]];
+					Row current = row.read();
+					int capacity = Math.max(current.taken, current.capacity + changes[i]);
+					row.write(new Row(capacity, current.taken, Math.max(1, current.price + changes[i])));
+				}
+				return null;
+			});
+		}
+	}
+
+	/**
+	 * In each table, take a seat in the most expensive of the queried rows
+	 * that has one left
+	 */
+	private void book(TxObject<Reservation> customer, int[][] queries)
+			throws NoActiveTransactionException, TransactionAbortedException {
+		Reservation reservations = customer.read();
+		for (int table = 0; table < TABLES; table++) {
+			int best = -1;
+			Row bestRow = null;
+			for (int row : queries[table]) {
+				Row current = tables[table][row].read();
+				if (current.taken < current.capacity && (bestRow == null || current.price > bestRow.price)) {
+					best = row;
+					bestRow = current;
+				}
+			}
+			if (best >= 0) {
+				tables[table][best].write(new Row(bestRow.capacity, bestRow.taken + 1, bestRow.price));
+				reservations = new Reservation(table, best, reservations);
+			}
+		}
+		customer.write(reservations);
+	}
+
+	/**
+	 * Give back every seat of a customer
+	 */
+	private void cancel(TxObject<Reservation> customer)
+			throws NoActiveTransactionException, TransactionAbortedException {
+		for (Reservation r = customer.read(); r != null; r = r.next) {
+			TxObject<Row> row = tables[r.table][r.row];
+			Row current = row.read();
+			row.write(new Row(current.capacity, current.taken - 1, current.price));
+		}
+		customer.write(null);
+	}
+
+	@Override
+	String check() {
+		int[][] held = new int[TABLES][customers.length];
+		for (TxObject<Reservation> customer : customers) {
+			for (Reservation r = customer.getTrueTxObjectValue(); r != null; r = r.next) {
+				held[r.table][r.row]++;
+			}
+		}
+		for (int table = 0; table < TABLES; table++) {
+			for (int row = 0; row < customers.length; row++) {
+				Row current = tables[table][row].getTrueTxObjectValue();
+				if (current.taken != held[table][row] || current.taken > current.capacity) {
+					return "table " + table + " row " + row + ": " + current.taken + " taken of " + current.capacity
+							+ ", " + held[table][row] + " reserved";
+				}
+			}
+		}
+		return null;
+	}
+}
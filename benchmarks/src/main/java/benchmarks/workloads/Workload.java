@@ -0,0 +1,69 @@
+package benchmarks.workloads;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import carlstm.CarlSTM;
+import carlstm.Transaction;
+import carlstm.TxOptions;
+
+/**
+ * A transactional application run by {@link Harness}: shared data built once,
+ * then operations run repeatedly by every thread, then a consistency check
+ * once all threads have stopped.
+ */
+abstract class Workload {
+	/**
+	 * How much the operations of different threads overlap. Each workload
+	 * maps the level to the size of its shared data.
+	 */
+	enum Contention {
+		LOW, MEDIUM, HIGH
+	}
+
+	private TxOptions options;
+
+	/**
+	 * Build the shared data
+	 *
+	 * @param contention
+	 * @param options
+	 *            options of every transaction the workload runs
+	 */
+	final void setUp(Contention contention, TxOptions options) {
+		this.options = options;
+		build(contention);
+	}
+
+	/**
+	 * Build the shared data for a contention level
+	 *
+	 * @param contention
+	 */
+	abstract void build(Contention contention);
+
+	/**
+	 * Run one operation, made of one or more transactions
+	 *
+	 * @param random
+	 *            random numbers of the calling thread
+	 */
+	abstract void operation(ThreadLocalRandom random);
+
+	/**
+	 * Check the shared data once no operation runs any more
+	 *
+	 * @return a description of what is wrong, or null if the data is
+	 *         consistent
+	 */
+	abstract String check();
+
+	/**
+	 * Execute a transaction with the options of the workload
+	 *
+	 * @param tx
+	 * @return its result
+	 */
+	<T> T execute(Transaction<T> tx) {
+		return CarlSTM.execute(tx, options);
+	}
+}
@@ -0,0 +1,30 @@
+package carlstm;
+
+/**
+ * Why a transaction attempt aborted, as counted by {@link StmStatistics}.
+ */
+public enum AbortCause {
+	/**
+	 * Something the transaction read was committed by another transaction,
+	 * so its reads no longer form a consistent snapshot
+	 */
+	READ_VALIDATION,
+	/**
+	 * The transaction gave up waiting for a TxObject locked by another
+	 * transaction
+	 */
+	LOCK_BUSY,
+	/**
+	 * A TxObject the transaction wrote was committed by another transaction
+	 * since the transaction read it
+	 */
+	WRITE_WRITE_CONFLICT,
+	/**
+	 * Another transaction's contention manager aborted this one
+	 */
+	KILLED,
+	/**
+	 * The transaction threw {@link TransactionAbortedException} itself
+	 */
+	OTHER
+}
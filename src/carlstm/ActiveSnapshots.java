@@ -0,0 +1,98 @@
+package carlstm;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The snapshots of the declared read-only transactions currently running.
+ * Committers consult it to decide how much of a {@link TxObject}'s version
+ * history is still needed: a version older than the oldest active snapshot
+ * can never be read again.
+ *
+ * A reader announces its snapshot in one of a fixed number of slots. A reader
+ * that finds no free slot, or that registers just after a committer looked,
+ * may find the version it needs already reclaimed; it then aborts and retries
+ * with a newer snapshot, so the registry only ever affects progress, never
+ * consistency. For the same reason readers do not register at all until some
+ * TxObject keeps previous values, so that programs that never use them pay
+ * nothing for it.
+ */
+final class ActiveSnapshots {
+	private static final int SLOTS = 256;
+	// Slots are a cache line apart, so that readers taking neighbouring slots
+	// do not contend
+	private static final int STRIDE = 8;
+	// Snapshot clock value + 1 for a taken slot, 0 for a free one
+	private static final AtomicLongArray slots = new AtomicLongArray(SLOTS * STRIDE);
+	// Number of taken slots, so that committers can skip the scan
+	private static final AtomicInteger active = new AtomicInteger();
+	// Set once a TxObject keeping previous values has been created
+	private static volatile boolean historyKept;
+
+	private ActiveSnapshots() {
+	}
+
+	/**
+	 * Note that a TxObject keeping previous values exists, so that readers
+	 * must announce their snapshots from now on
+	 */
+	static void keepHistory() {
+		if (!historyKept) {
+			historyKept = true;
+		}
+	}
+
+	/**
+	 * Announce the snapshot of a starting read-only transaction
+	 *
+	 * @param readVersion
+	 *            clock value of the snapshot
+	 * @param hint
+	 *            where to start looking for a free slot
+	 * @return the slot taken, to pass to {@link #release(int)}, or -1 if all
+	 *         slots are taken or no TxObject keeps previous values
+	 */
+	static int register(long readVersion, int hint) {
+		if (!historyKept) {
+			return -1;
+		}
+		active.incrementAndGet();
+		for (int i = 0; i < SLOTS; i++) {
+			int slot = ((hint + i) & (SLOTS - 1)) * STRIDE;
+			if (slots.get(slot) == 0 && slots.compareAndSet(slot, 0, readVersion + 1)) {
+				return slot;
+			}
+		}
+		active.decrementAndGet();
+		return -1;
+	}
+
+	/**
+	 * Withdraw the snapshot of a finished read-only transaction
+	 *
+	 * @param slot
+	 *            slot returned by {@link #register(long, int)}
+	 */
+	static void release(int slot) {
+		slots.set(slot, 0);
+		active.decrementAndGet();
+	}
+
+	/**
+	 * @return clock value of the oldest active snapshot, or
+	 *         {@link Long#MAX_VALUE} if there is none
+	 */
+	static long oldest() {
+		if (active.get() == 0) {
+			return Long.MAX_VALUE;
+		}
+		long oldest = Long.MAX_VALUE;
+		for (int i = 0; i < SLOTS; i++) {
+			long snapshot = slots.get(i * STRIDE);
+			if (snapshot != 0 && snapshot - 1 < oldest) {
+				oldest = snapshot - 1;
+			}
+		}
+		return oldest;
+	}
+}
@@ -0,0 +1,19 @@
+package carlstm;
+
+/**
+ * A contention manager that always aborts the owner of a contended object and
+ * retries immediately after aborting. It gives the lowest latency when
+ * conflicts are rare, but can livelock when they are not.
+ */
+public class AggressiveContentionManager implements ContentionManager {
+
+	@Override
+	public Resolution resolveConflict(Contender self, Contender other, int waits) {
+		return Resolution.ABORT_OTHER;
+	}
+
+	@Override
+	public long backoffNanos(Contender self) {
+		return 0;
+	}
+}
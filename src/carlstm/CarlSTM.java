@@ -30,64 +30,502 @@ import java.util.concurrent.TimeUnit;
  */
 public class CarlSTM {
 
+	static final ThreadLocal<TxInfo> TxInfoThreadLocal = new ThreadLocal<TxInfo>();
+	private static final boolean DEBUG = false;
+	// Contention manager used by transactions that do not choose their own
+	private static volatile ContentionManager defaultContentionManager = new PoliteContentionManager();
+	// Retry budget of transactions that do not choose their own
+	private static volatile int defaultMaxRetries = Integer.MAX_VALUE;
+	// Aborts after which transactions that do not choose their own threshold
+	// run irrevocably
+	private static volatile int defaultFallbackThreshold = 64;
+	private static final TxOptions DEFAULT_OPTIONS = new TxOptions();
+	private static final TxOptions READ_ONLY_OPTIONS = new TxOptions().setReadOnly(true);
+
 	/**
-	 * Execute a transaction and return its result. This method needs to
-	 * repeatedly start, execute, and commit the transaction until it
-	 * successfully commits.
+	 * Get a handle on the transaction running on the current thread, for
+	 * passing to {@link TxObject#read(TxContext)} and
+	 * {@link TxObject#write(TxContext, Object)}.
+	 * 
+	 * @return the running transaction
+	 * @throws NoActiveTransactionException
+	 *             if no transaction is running on this thread
+	 */
+	public static TxContext currentContext() throws NoActiveTransactionException {
+		TxInfo threadTxInfo = TxInfoThreadLocal.get();
+		if (threadTxInfo == null || !threadTxInfo.currentTransactionActive()) {
+			throw new NoActiveTransactionException();
+		}
+		return threadTxInfo;
+	}
+
+	/**
+	 * Print the numbers of commits and aborts of the current thread
+	 * 
+	 * @deprecated use {@link StmStatistics#currentThread()}
+	 */
+	@Deprecated
+	public static void getCounts() {
+		StmStatistics statistics = StmStatistics.currentThread();
+		System.out.printf(Thread.currentThread().getName() + " Commit count: %d, Abort count: %d\n",
+				statistics.getCommits(), statistics.getAborts());
+	}
+
+	/**
+	 * Execute a transaction and return its result. This method repeatedly
+	 * starts, executes, and commits the transaction until it successfully
+	 * commits or runs out of retries.
+	 * 
+	 * If the calling thread is already executing a transaction, tx is run once
+	 * as part of it (see {@link Nesting}) and commits or aborts with it, so
+	 * transactional methods can be composed into larger atomic operations.
 	 * 
 	 * @param <T>
 	 *            return type of the transaction
 	 * @param tx
 	 *            transaction to be executed
 	 * @return result of the transaction
+	 * @throws TransactionRetryLimitExceededException
+	 *             if the transaction aborted more times than
+	 *             {@link #getMaxRetries()} allows
 	 */
-	static final ThreadLocal<TxInfo> TxInfoThreadLocal = new ThreadLocal<TxInfo>();
-	// waiting time in case of backoff and the exponential factor
-	private static final boolean DEBUG = false;
-	private static final long sleeptimefactor = 2;
-	private static ThreadLocal<Long> threadSleepTime = new ThreadLocal<Long>();
+	public static <T> T execute(Transaction<T> tx) {
+		return execute(tx, DEFAULT_OPTIONS);
+	}
 
-	public static void getCounts() {
-		int commitCount = TxInfoThreadLocal.get().commitCount;
-		int abortCount = TxInfoThreadLocal.get().abortCount;
-		System.out.printf(Thread.currentThread().getName() + " Commit count: %d, Abort count: %d\n", commitCount,
-				abortCount);
+	/**
+	 * Execute a transaction, resolving its conflicts with the given contention
+	 * manager instead of the default one.
+	 * 
+	 * @param <T>
+	 *            return type of the transaction
+	 * @param tx
+	 *            transaction to be executed
+	 * @param contentionManager
+	 *            contention manager for this transaction
+	 * @return result of the transaction
+	 */
+	public static <T> T execute(Transaction<T> tx, ContentionManager contentionManager) {
+		return execute(tx, new TxOptions().setContentionManager(contentionManager));
 	}
 
-	public static <T> T execute(Transaction<T> tx) {
-		// TODO implement me
-		// Initialize the threadTxInfo and start it
-		threadSleepTime.set(new Long(20));
-		if (TxInfoThreadLocal.get() == null) {
-			TxInfoThreadLocal.set(new TxInfo());
+	/**
+	 * Execute a transaction at the given isolation level.
+	 * 
+	 * @param <T>
+	 *            return type of the transaction
+	 * @param tx
+	 *            transaction to be executed
+	 * @param isolation
+	 *            isolation level of the transaction; see
+	 *            {@link Isolation#SNAPSHOT} for what is given up by relaxing
+	 *            it
+	 * @return result of the transaction
+	 */
+	public static <T> T execute(Transaction<T> tx, Isolation isolation) {
+		return execute(tx, new TxOptions().setIsolation(isolation));
+	}
+
+	/**
+	 * Set the contention manager used by transactions that do not specify one.
+	 * The default is a {@link PoliteContentionManager}.
+	 * 
+	 * @param contentionManager
+	 *            the new default contention manager
+	 */
+	public static void setContentionManager(ContentionManager contentionManager) {
+		if (contentionManager == null) {
+			throw new NullPointerException();
 		}
-		TxInfoThreadLocal.get().start();
-		try {
-			T result = tx.run();
-			TxInfoThreadLocal.get().commit();
-			return result;
-		} catch (NoActiveTransactionException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-			return null;
-		} catch (TransactionAbortedException e) {
-			// Exponential backoff
-			TxInfoThreadLocal.get().abort();
-			if (TxInfoThreadLocal.get().shouldWait) {
-				threadSleepTime.set(threadSleepTime.get() * sleeptimefactor);
-				if (DEBUG) {
-					System.out.println(
-							Thread.currentThread().getName() + " aborted, retry in" + threadSleepTime.get() + " us");
+		defaultContentionManager = contentionManager;
+	}
+
+	/**
+	 * @return the contention manager used by transactions that do not specify
+	 *         one
+	 */
+	public static ContentionManager getContentionManager() {
+		return defaultContentionManager;
+	}
+
+	/**
+	 * Set how many times a transaction that does not specify its own budget is
+	 * retried after aborting before {@link #execute} gives up with
+	 * {@link TransactionRetryLimitExceededException}. The default is
+	 * {@link Integer#MAX_VALUE}, i.e. retry until the transaction commits.
+	 * 
+	 * @param maxRetries
+	 *            the new default retry budget
+	 */
+	public static void setMaxRetries(int maxRetries) {
+		if (maxRetries < 0) {
+			throw new IllegalArgumentException("maxRetries: " + maxRetries);
+		}
+		defaultMaxRetries = maxRetries;
+	}
+
+	/**
+	 * @return the retry budget of transactions that do not specify one
+	 */
+	public static int getMaxRetries() {
+		return defaultMaxRetries;
+	}
+
+	/**
+	 * Set how many times a transaction that does not specify its own threshold
+	 * may abort before its next attempt runs irrevocably, as with
+	 * {@link #executeIrrevocable}, which guarantees that the attempt commits.
+	 * The default is 64. {@link Integer#MAX_VALUE} disables the fallback.
+	 * {@link StmStatistics#getFallbacks()} counts the attempts run this way.
+	 * 
+	 * @param fallbackThreshold
+	 *            the new default number of aborts before the fallback
+	 */
+	public static void setFallbackThreshold(int fallbackThreshold) {
+		if (fallbackThreshold < 0) {
+			throw new IllegalArgumentException("fallbackThreshold: " + fallbackThreshold);
+		}
+		defaultFallbackThreshold = fallbackThreshold;
+	}
+
+	/**
+	 * @return the number of aborts after which transactions that do not
+	 *         specify their own threshold run irrevocably
+	 */
+	public static int getFallbackThreshold() {
+		return defaultFallbackThreshold;
+	}
+
+	/**
+	 * Execute a transaction that only reads TxObjects and return its result.
+	 * The transaction reads a consistent snapshot of the TxObjects as of its
+	 * start and keeps no read or write set, so its commit takes no locks and
+	 * never fails. Writing a TxObject inside it throws
+	 * {@link ReadOnlyTransactionException}.
+	 * 
+	 * Transactions run with {@link #execute} that happen not to write anything
+	 * also commit without taking locks, but still have to validate the
+	 * TxObjects they read.
+	 * 
+	 * @param <T>
+	 *            return type of the transaction
+	 * @param tx
+	 *            transaction to be executed
+	 * @return result of the transaction
+	 */
+	public static <T> T executeReadOnly(Transaction<T> tx) {
+		return execute(tx, READ_ONLY_OPTIONS);
+	}
+
+	/**
+	 * Execute a transaction with the given options and return its result.
+	 * Each aborted attempt is followed by the backoff chosen by the contention
+	 * manager, which sees the number of attempts made so far. Once the
+	 * transaction has aborted as many times as its fallback threshold, the
+	 * next attempt runs irrevocably and is guaranteed to commit.
+	 * 
+	 * @param <T>
+	 *            return type of the transaction
+	 * @param tx
+	 *            transaction to be executed
+	 * @param options
+	 *            settings for this transaction
+	 * @return result of the transaction
+	 * @throws TransactionRetryLimitExceededException
+	 *             if the transaction aborted more times than its retry budget
+	 *             allows
+	 * @throws TransactionInterruptedException
+	 *             if the thread is interrupted while the transaction waits in
+	 *             {@link #retry()} or backs off after an abort
+	 */
+	public static <T> T execute(Transaction<T> tx, TxOptions options) {
+		ContentionManager contentionManager = options.getContentionManager() != null
+				? options.getContentionManager() : defaultContentionManager;
+		int maxRetries = options.getMaxRetries() >= 0 ? options.getMaxRetries() : defaultMaxRetries;
+		int fallbackThreshold = options.getFallbackThreshold() >= 0 ? options.getFallbackThreshold()
+				: defaultFallbackThreshold;
+		TxInfo threadTxInfo = threadTxInfo();
+		if (threadTxInfo.currentTransactionActive()) {
+			return executeNested(tx, threadTxInfo, options.getNesting());
+		}
+		boolean firstAttempt = true;
+		while (true) {
+			// Too many aborts: run irrevocably, which cannot abort
+			boolean fallback = !firstAttempt && threadTxInfo.getAttempt() >= fallbackThreshold;
+			long fallbackStart = 0;
+			if (fallback) {
+				fallbackStart = System.nanoTime();
+				Irrevocability.begin(threadTxInfo);
+				threadTxInfo.startIrrevocable(options.isReadOnly(), contentionManager, false);
+			} else {
+				threadTxInfo.start(options.isReadOnly(), options.getIsolation(), options.getLocking(), contentionManager,
+						firstAttempt);
+			}
+			firstAttempt = false;
+			try {
+				try {
+					T result = tx.run(threadTxInfo);
+					threadTxInfo.commit();
+					return result;
+				} catch (NestedAbortException e) {
+					// A nested transaction aborted, so this one does
+					throw e.getCause();
+				}
+			} catch (RuntimeException | Error e) {
+				// Errors too, or the thread would stay inside a transaction
+				// that every later execute() joins
+				threadTxInfo.abort();
+				throw e;
+			} catch (NoActiveTransactionException e) {
+				threadTxInfo.abort();
+				e.printStackTrace();
+				return null;
+			} catch (RetryException e) {
+				// Not a conflict: wait for a change instead of backing off,
+				// and do not count it against the retry budget. Other
+				// transactions must be able to commit meanwhile.
+				if (fallback) {
+					fallback = false;
+					endFallback(threadTxInfo, fallbackStart);
 				}
 				try {
-					TimeUnit.NANOSECONDS.sleep(threadSleepTime.get());
+					threadTxInfo.awaitRetry();
 				} catch (InterruptedException e1) {
-					e1.printStackTrace();
-					return null;
+					Thread.currentThread().interrupt();
+					throw new TransactionInterruptedException(e1);
+				}
+				continue;
+			} catch (TransactionAbortedException e) {
+				threadTxInfo.abort();
+			} finally {
+				if (fallback) {
+					endFallback(threadTxInfo, fallbackStart);
+				}
+			}
+			if (threadTxInfo.getAttempt() > maxRetries) {
+				throw new TransactionRetryLimitExceededException(threadTxInfo.getAttempt());
+			}
+			// Back off for as long as the contention manager asks
+			long backoff = contentionManager.backoffNanos(threadTxInfo);
+			if (backoff > 0) {
+				if (DEBUG) {
+					System.out.println(Thread.currentThread().getName() + " aborted, retry in " + backoff + " ns");
+				}
+				try {
+					TimeUnit.NANOSECONDS.sleep(backoff);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new TransactionInterruptedException(e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Execute a transaction exactly once. While it runs, transactions on
+	 * other threads may run but cannot commit writes, so nothing it reads
+	 * changes under it and it never aborts; it may therefore perform I/O and
+	 * other actions that cannot be undone. Irrevocable transactions run one at
+	 * a time, in the order they were requested, which also guarantees
+	 * progress to a large transaction that keeps losing to smaller ones.
+	 * 
+	 * If the transaction throws, its writes are discarded and the exception
+	 * is rethrown; it is not executed again. It may not call {@link #retry()}
+	 * outside of {@link #orElse}, since that would require executing it
+	 * again.
+	 * 
+	 * @param <T>
+	 *            return type of the transaction
+	 * @param tx
+	 *            transaction to be executed
+	 * @return result of the transaction
+	 * @throws TransactionAlreadyActiveException
+	 *             if called inside a transaction, which cannot become
+	 *             irrevocable once it has started
+	 * @throws IllegalStateException
+	 *             if the transaction calls {@link #retry()}
+	 */
+	public static <T> T executeIrrevocable(Transaction<T> tx) {
+		TxInfo threadTxInfo = threadTxInfo();
+		if (threadTxInfo.currentTransactionActive()) {
+			throw new TransactionAlreadyActiveException();
+		}
+		Irrevocability.begin(threadTxInfo);
+		try {
+			threadTxInfo.startIrrevocable(false, defaultContentionManager, true);
+			try {
+				try {
+					T result = tx.run(threadTxInfo);
+					threadTxInfo.commit();
+					return result;
+				} catch (NestedAbortException e) {
+					throw e.getCause();
 				}
+			} catch (RuntimeException | Error e) {
+				threadTxInfo.abort();
+				throw e;
+			} catch (NoActiveTransactionException e) {
+				threadTxInfo.abort();
+				e.printStackTrace();
+				return null;
+			} catch (RetryException e) {
+				threadTxInfo.abort();
+				throw new IllegalStateException("retry() in an irrevocable transaction");
+			} catch (TransactionAbortedException e) {
+				// Nothing can conflict with an irrevocable transaction
+				threadTxInfo.abort();
+				throw new IllegalStateException("irrevocable transaction aborted", e);
 			}
-			T result = execute(tx);
+		} finally {
+			Irrevocability.end();
+		}
+	}
+
+	/**
+	 * Let other transactions commit again after an attempt run irrevocably
+	 * because of too many aborts, and account for it
+	 * 
+	 * @param threadTxInfo
+	 * @param fallbackStart
+	 *            System.nanoTime() when the attempt asked for its turn
+	 */
+	private static void endFallback(TxInfo threadTxInfo, long fallbackStart) {
+		Irrevocability.end();
+		threadTxInfo.recordFallback(System.nanoTime() - fallbackStart);
+	}
+
+	/**
+	 * @return the TxInfo of the calling thread, created on first use
+	 */
+	private static TxInfo threadTxInfo() {
+		TxInfo threadTxInfo = TxInfoThreadLocal.get();
+		if (threadTxInfo == null) {
+			threadTxInfo = new TxInfo();
+			TxInfoThreadLocal.set(threadTxInfo);
+		}
+		return threadTxInfo;
+	}
+
+	/**
+	 * Run a transaction as part of the transaction already running on this
+	 * thread
+	 * 
+	 * @param <T>
+	 *            return type of the transaction
+	 * @param tx
+	 *            transaction to be executed
+	 * @param threadTxInfo
+	 *            the running transaction
+	 * @param nesting
+	 *            whether to discard the writes of tx if it throws
+	 * @return result of the transaction
+	 */
+	private static <T> T executeNested(Transaction<T> tx, TxInfo threadTxInfo, Nesting nesting) {
+		boolean closed = nesting == Nesting.CLOSED;
+		if (closed) {
+			threadTxInfo.beginNested();
+		}
+		boolean completed = false;
+		try {
+			T result = tx.run(threadTxInfo);
+			completed = true;
 			return result;
+		} catch (TransactionAbortedException e) {
+			if (!(e instanceof RetryException)) {
+				// Even if the caller catches the exception, the outer
+				// transaction must not commit
+				threadTxInfo.doom();
+			}
+			throw new NestedAbortException(e);
+		} catch (NoActiveTransactionException e) {
+			// The outer transaction is active, so this cannot happen
+			throw new IllegalStateException(e);
+		} finally {
+			if (closed) {
+				if (completed) {
+					threadTxInfo.commitNested();
+				} else {
+					threadTxInfo.rollbackNested();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Abandon the running transaction and block until another transaction
+	 * commits a change to one of the TxObjects it has read, then run it again
+	 * from the start. This lets a transaction wait for a condition, for
+	 * example:
+	 * 
+	 * <pre>
+	 * if (queueSize.read() == 0) {
+	 * 	CarlSTM.retry();
+	 * }
+	 * </pre>
+	 * 
+	 * Blocking retries do not count against the retry budget. If the thread is
+	 * interrupted while blocked, {@link #execute} throws
+	 * {@link TransactionInterruptedException}.
+	 * 
+	 * @throws NoActiveTransactionException
+	 *             if no transaction is running on this thread
+	 * @throws TransactionAbortedException
+	 *             always, to unwind the transaction
+	 */
+	public static void retry() throws NoActiveTransactionException, TransactionAbortedException {
+		currentContext();
+		throw new RetryException();
+	}
+
+	/**
+	 * Run the first of two alternatives and, if it calls {@link #retry()},
+	 * discard its writes and run the second one instead. If the second one
+	 * retries too, the whole transaction blocks until something read by
+	 * either alternative changes. Inside a transaction the alternatives
+	 * become part of it; outside of one, they are executed as a new
+	 * transaction.
+	 * 
+	 * @param <T>
+	 *            return type of the alternatives
+	 * @param first
+	 *            the preferred alternative
+	 * @param second
+	 *            the alternative to run if the first one retries
+	 * @return result of the alternative that completed
+	 * @throws NoActiveTransactionException
+	 * @throws TransactionAbortedException
+	 *             if the running transaction aborts
+	 */
+	public static <T> T orElse(Transaction<T> first, Transaction<T> second)
+			throws NoActiveTransactionException, TransactionAbortedException {
+		TxInfo threadTxInfo = TxInfoThreadLocal.get();
+		if (threadTxInfo == null || !threadTxInfo.currentTransactionActive()) {
+			return execute(new Transaction<T>() {
+				@Override
+				public T run() throws NoActiveTransactionException, TransactionAbortedException {
+					return orElse(first, second);
+				}
+			});
+		}
+		threadTxInfo.beginNested();
+		boolean retried = false;
+		try {
+			return first.run(threadTxInfo);
+		} catch (RetryException e) {
+			retried = true;
+		} catch (NestedAbortException e) {
+			// A transaction executed by the first alternative retried
+			if (!(e.getCause() instanceof RetryException)) {
+				throw e;
+			}
+			retried = true;
+		} finally {
+			if (retried) {
+				threadTxInfo.rollbackNested();
+			} else {
+				threadTxInfo.commitNested();
+			}
 		}
+		return second.run(threadTxInfo);
 	}
 }
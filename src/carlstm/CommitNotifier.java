@@ -0,0 +1,61 @@
+package carlstm;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Wakes up transactions blocked in {@link CarlSTM#retry()} when another
+ * transaction commits. Committers only touch the lock when somebody is
+ * waiting, so the common case costs one volatile read per commit.
+ */
+final class CommitNotifier {
+	private static final ReentrantLock lock = new ReentrantLock();
+	private static final Condition committed = lock.newCondition();
+	private static final AtomicInteger waiters = new AtomicInteger();
+
+	/**
+	 * Something that a blocked transaction waits for
+	 */
+	interface WakeCondition {
+		boolean isSatisfied();
+	}
+
+	private CommitNotifier() {
+	}
+
+	/**
+	 * Called after a transaction has published its writes
+	 */
+	static void signalCommit() {
+		if (waiters.get() > 0) {
+			lock.lock();
+			try {
+				committed.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Block until a condition holds, rechecking it after every commit. The
+	 * waiter registers itself before checking the condition, and committers
+	 * check for waiters after publishing, so no commit can be missed.
+	 * 
+	 * @param condition
+	 * @throws InterruptedException
+	 */
+	static void await(WakeCondition condition) throws InterruptedException {
+		lock.lock();
+		waiters.incrementAndGet();
+		try {
+			while (!condition.isSatisfied()) {
+				committed.await();
+			}
+		} finally {
+			waiters.decrementAndGet();
+			lock.unlock();
+		}
+	}
+}
@@ -0,0 +1,214 @@
+package carlstm;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Ranks TxObjects by the aborts they cause. While the profiler runs, a sample
+ * of the aborted attempts is charged to the object the conflict was detected
+ * on, under its label (see {@link TxObject#setLabel(String)}). Objects with
+ * the same label are counted together, so labelling all the buckets of a
+ * table alike ranks the table, and labelling each bucket apart ranks the
+ * buckets. An object without a label is counted under its allocation site if
+ * {@link #setCaptureAllocationSites(boolean)} was on when it was created, and
+ * on its own otherwise.
+ *
+ * For example:
+ *
+ * <pre>
+ * ConflictProfiler.start(1);
+ * runWorkload();
+ * ConflictProfiler.stop();
+ * ConflictProfiler.printHotspots(System.out, 10);
+ * </pre>
+ */
+public final class ConflictProfiler {
+	private static volatile boolean running;
+	private static volatile boolean captureAllocationSites;
+	// One in sampleInterval aborts is recorded
+	private static volatile int sampleInterval = 1;
+	// Sampled aborts per label, by cause
+	private static final Map<String, LongAdder[]> samples = new ConcurrentHashMap<String, LongAdder[]>();
+
+	private ConflictProfiler() {
+	}
+
+	/**
+	 * Discard the samples taken so far and start sampling aborts
+	 *
+	 * @param sampleInterval
+	 *            record one in this many aborts, chosen at random; 1
+	 *            records them all
+	 */
+	public static void start(int sampleInterval) {
+		if (sampleInterval < 1) {
+			throw new IllegalArgumentException("sampleInterval: " + sampleInterval);
+		}
+		running = false;
+		samples.clear();
+		ConflictProfiler.sampleInterval = sampleInterval;
+		running = true;
+	}
+
+	/**
+	 * Stop sampling aborts. The samples taken so far are kept.
+	 */
+	public static void stop() {
+		running = false;
+	}
+
+	/**
+	 * @return true between {@link #start} and {@link #stop}
+	 */
+	public static boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * Choose whether TxObjects created from now on remember where they were
+	 * created, to be counted under their allocation site when they have no
+	 * label. Capturing the site walks the stack at every creation, so this is
+	 * off by default.
+	 *
+	 * @param capture
+	 */
+	public static void setCaptureAllocationSites(boolean capture) {
+		captureAllocationSites = capture;
+	}
+
+	/**
+	 * @return the labels charged with aborts, most aborts first
+	 */
+	public static List<Hotspot> getHotspots() {
+		List<Hotspot> hotspots = new ArrayList<Hotspot>();
+		int interval = sampleInterval;
+		for (Map.Entry<String, LongAdder[]> entry : samples.entrySet()) {
+			long[] counts = new long[entry.getValue().length];
+			for (int i = 0; i < counts.length; i++) {
+				counts[i] = entry.getValue()[i].sum();
+			}
+			hotspots.add(new Hotspot(entry.getKey(), counts, interval));
+		}
+		hotspots.sort((a, b) -> Long.compare(b.getSamples(), a.getSamples()));
+		return hotspots;
+	}
+
+	/**
+	 * Print the labels charged with the most aborts
+	 *
+	 * @param out
+	 * @param limit
+	 *            maximum number of labels printed
+	 */
+	public static void printHotspots(PrintStream out, int limit) {
+		List<Hotspot> hotspots = getHotspots();
+		long total = 0;
+		for (Hotspot hotspot : hotspots) {
+			total += hotspot.getSamples();
+		}
+		out.printf("%d sampled aborts, one in %d%n", total, sampleInterval);
+		for (int i = 0; i < hotspots.size() && i < limit; i++) {
+			Hotspot hotspot = hotspots.get(i);
+			out.printf("%6.1f%% %8d  %s%n", 100.0 * hotspot.getSamples() / total, hotspot.getSamples(),
+					hotspot.getLabel());
+		}
+	}
+
+	/**
+	 * Maybe record an abort, called by the aborting thread while the
+	 * profiler runs
+	 *
+	 * @param cell
+	 *            object the conflict was detected on
+	 * @param cause
+	 */
+	static void sample(TxCell cell, AbortCause cause) {
+		int interval = sampleInterval;
+		if (interval > 1 && ThreadLocalRandom.current().nextInt(interval) != 0) {
+			return;
+		}
+		LongAdder[] counts = samples.computeIfAbsent(cell.describe(), label -> {
+			LongAdder[] adders = new LongAdder[AbortCause.values().length];
+			for (int i = 0; i < adders.length; i++) {
+				adders[i] = new LongAdder();
+			}
+			return adders;
+		});
+		counts[cause.ordinal()].increment();
+	}
+
+	/**
+	 * @return where the calling code outside this package creates a TxObject,
+	 *         or null if allocation sites are not captured
+	 */
+	static String allocationSite() {
+		if (!captureAllocationSites) {
+			return null;
+		}
+		return StackWalker.getInstance()
+				.walk(frames -> frames.filter(frame -> !frame.getClassName().startsWith("carlstm.")).findFirst())
+				.map(frame -> frame.getClassName() + "." + frame.getMethodName() + "(" + frame.getFileName() + ":"
+						+ frame.getLineNumber() + ")")
+				.orElse(null);
+	}
+
+	/**
+	 * The aborts charged to one label
+	 */
+	public static final class Hotspot {
+		private final String label;
+		private final long[] counts;
+		private final long samples;
+		private final int sampleInterval;
+
+		Hotspot(String label, long[] counts, int sampleInterval) {
+			this.label = label;
+			this.counts = counts;
+			this.sampleInterval = sampleInterval;
+			long total = 0;
+			for (long count : counts) {
+				total += count;
+			}
+			samples = total;
+		}
+
+		/**
+		 * @return the label, allocation site or name of the objects
+		 */
+		public String getLabel() {
+			return label;
+		}
+
+		/**
+		 * @return number of aborts recorded
+		 */
+		public long getSamples() {
+			return samples;
+		}
+
+		/**
+		 * @param cause
+		 * @return number of aborts recorded for the given cause
+		 */
+		public long getSamples(AbortCause cause) {
+			return counts[cause.ordinal()];
+		}
+
+		/**
+		 * @return estimated number of aborts, allowing for sampling
+		 */
+		public long getEstimatedAborts() {
+			return samples * sampleInterval;
+		}
+
+		@Override
+		public String toString() {
+			return label + ": " + samples;
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package carlstm;
+
+/**
+ * A contention manager decides what a transaction does when it runs into a
+ * {@link TxObject} owned by another transaction, and how long it backs off
+ * after it aborts. A single manager is shared by all threads, so
+ * implementations should keep any per-transaction state in the
+ * {@link Contender} they are handed rather than in their own fields.
+ * 
+ * The manager used by {@link CarlSTM#execute(Transaction)} can be changed with
+ * {@link CarlSTM#setContentionManager}, and a different one can be chosen for
+ * a single transaction with
+ * {@link CarlSTM#execute(Transaction, ContentionManager)}.
+ */
+public interface ContentionManager {
+
+	/**
+	 * Possible outcomes of a conflict between two transactions.
+	 */
+	public enum Resolution {
+		/**
+		 * Wait for the other transaction to release the object; the manager
+		 * is consulted again if it is still owned.
+		 */
+		WAIT,
+		/**
+		 * Abort the transaction that found the conflict.
+		 */
+		ABORT_SELF,
+		/**
+		 * Ask the other transaction to abort, then wait for it to release the
+		 * object. A transaction that is already writing back its commit can no
+		 * longer be aborted and is waited for instead.
+		 */
+		ABORT_OTHER
+	}
+
+	/**
+	 * The view of a transaction that a contention manager gets to see. The
+	 * values describe the current call to {@link CarlSTM#execute} and carry
+	 * over from one attempt to the next until the transaction commits.
+	 */
+	public interface Contender {
+		/**
+		 * @return number of times the transaction has aborted so far
+		 */
+		public int getAttempt();
+
+		/**
+		 * @return {@link System#nanoTime()} when the first attempt started
+		 */
+		public long getStartTime();
+
+		/**
+		 * @return number of TxObjects the transaction has opened over all of
+		 *         its attempts
+		 */
+		public long getKarma();
+	}
+
+	/**
+	 * Decide what to do about a conflict.
+	 * 
+	 * @param self
+	 *            the transaction that found the object owned
+	 * @param other
+	 *            the transaction that owns the object
+	 * @param waits
+	 *            how many times self has already waited on this object
+	 * @return the resolution of the conflict
+	 */
+	public Resolution resolveConflict(Contender self, Contender other, int waits);
+
+	/**
+	 * Decide how long an aborted transaction sleeps before its next attempt.
+	 * 
+	 * @param self
+	 *            the aborted transaction; its attempt count already includes
+	 *            the abort
+	 * @return time to back off in nanoseconds, 0 to retry immediately
+	 */
+	public long backoffNanos(Contender self);
+}
@@ -0,0 +1,24 @@
+package carlstm;
+
+/**
+ * A contention manager that favors the oldest transaction. A transaction keeps
+ * the start time of its first attempt across aborts; the older of two
+ * conflicting transactions aborts the other and the younger one waits. Since
+ * the oldest running transaction is never aborted by a conflict, every
+ * transaction eventually commits. Aborted transactions retry immediately.
+ */
+public class GreedyContentionManager implements ContentionManager {
+
+	@Override
+	public Resolution resolveConflict(Contender self, Contender other, int waits) {
+		if (self.getStartTime() - other.getStartTime() < 0) {
+			return Resolution.ABORT_OTHER;
+		}
+		return Resolution.WAIT;
+	}
+
+	@Override
+	public long backoffNanos(Contender self) {
+		return 0;
+	}
+}
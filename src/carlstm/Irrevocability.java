@@ -0,0 +1,77 @@
+package carlstm;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Coordination between an irrevocable transaction and everybody else. At most
+ * one irrevocable transaction runs at a time. While it runs, no other
+ * transaction may start committing writes, so nothing it reads can change
+ * under it and its own commit cannot fail.
+ *
+ * A committing transaction announces itself through
+ * {@link TxInfo#inCommit} before checking {@link #holder}, and the
+ * irrevocable transaction publishes itself in {@link #holder} before waiting
+ * for the announced commits to finish, so one of the two always sees the
+ * other.
+ */
+final class Irrevocability {
+	// Queues the irrevocable transactions, first come first served
+	private static final ReentrantLock turn = new ReentrantLock(true);
+	// The running irrevocable transaction, or null
+	private static volatile TxInfo holder;
+	private static final Object released = new Object();
+
+	private Irrevocability() {
+	}
+
+	/**
+	 * Wait for the turn of an irrevocable transaction, then keep new commits
+	 * out and wait for the ones in progress to finish
+	 *
+	 * @param txInfo
+	 *            the transaction becoming irrevocable
+	 */
+	static void begin(TxInfo txInfo) {
+		turn.lock();
+		holder = txInfo;
+		TxInfo.awaitOtherCommits(txInfo);
+	}
+
+	/**
+	 * Let the deferred commits proceed and the next irrevocable transaction
+	 * run
+	 */
+	static void end() {
+		holder = null;
+		synchronized (released) {
+			released.notifyAll();
+		}
+		turn.unlock();
+	}
+
+	/**
+	 * @param txInfo
+	 * @return true if an irrevocable transaction other than txInfo is running
+	 */
+	static boolean heldByOther(TxInfo txInfo) {
+		TxInfo current = holder;
+		return current != null && current != txInfo;
+	}
+
+	/**
+	 * Wait a little for the running irrevocable transaction to end. Returns
+	 * early if it ends, and after at most a millisecond otherwise, so that the
+	 * caller can check whether it was killed meanwhile.
+	 */
+	static void awaitEnd() {
+		synchronized (released) {
+			if (holder != null) {
+				try {
+					released.wait(1);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+	}
+}
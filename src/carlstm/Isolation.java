@@ -0,0 +1,36 @@
+package carlstm;
+
+/**
+ * How strictly a transaction is isolated from concurrent ones.
+ */
+public enum Isolation {
+	/**
+	 * The transaction behaves as if it ran alone at the moment it commits:
+	 * every TxObject it read must still hold the value it read when it
+	 * commits. This is the default.
+	 */
+	SERIALIZABLE,
+	/**
+	 * The transaction reads a consistent snapshot of the TxObjects and only
+	 * aborts if another transaction committed a change to an object it
+	 * writes. Objects it only reads may change before it commits without
+	 * causing an abort, which makes it much less likely to abort when it
+	 * reads a lot and writes little.
+	 * 
+	 * The price is write skew: two transactions may each read what the other
+	 * writes and both commit. For example, with the invariant x + y >= 0 and
+	 * x = y = 1, one transaction checks the invariant and sets x = -1 while
+	 * another checks it and sets y = -1; each saw a state in which its update
+	 * was safe, and the result breaks the invariant. Use this mode only when
+	 * the decisions of the transaction do not depend on objects another
+	 * transaction may write concurrently, or write those objects too (even
+	 * writing back the value read) to turn the conflict into a write-write
+	 * conflict.
+	 * 
+	 * Snapshot reads use the previous values kept by TxObjects created with a
+	 * history depth; an object overwritten after the snapshot without a kept
+	 * value moves the snapshot forward if nothing read so far has changed,
+	 * and aborts the transaction otherwise.
+	 */
+	SNAPSHOT
+}
@@ -0,0 +1,25 @@
+package carlstm;
+
+/**
+ * A contention manager that favors the transaction which has done the most
+ * work. A transaction's karma is the number of TxObjects it has opened,
+ * accumulated over all of its aborted attempts. A transaction with less karma
+ * waits for the owner, gaining one point for each time it waits, and aborts
+ * the owner once its karma plus its waits exceeds the owner's karma. Aborted
+ * transactions retry immediately.
+ */
+public class KarmaContentionManager implements ContentionManager {
+
+	@Override
+	public Resolution resolveConflict(Contender self, Contender other, int waits) {
+		if (self.getKarma() + waits > other.getKarma()) {
+			return Resolution.ABORT_OTHER;
+		}
+		return Resolution.WAIT;
+	}
+
+	@Override
+	public long backoffNanos(Contender self) {
+		return 0;
+	}
+}
@@ -0,0 +1,23 @@
+package carlstm;
+
+/**
+ * When a transaction locks the TxObjects it writes.
+ */
+public enum Locking {
+	/**
+	 * Writes are buffered and the written objects are locked at commit. Two
+	 * transactions writing the same object both run to completion, and the
+	 * one that commits second aborts. This is the default.
+	 */
+	LAZY,
+	/**
+	 * A written object is locked the first time it is written and stays
+	 * locked until the transaction ends. A transaction that writes an object
+	 * another transaction has written is stopped at that write, where the
+	 * contention manager decides which one to abort, instead of finding out
+	 * at commit after doing all its work. Other transactions cannot read the
+	 * object meanwhile, so this pays off for short transactions on hot
+	 * objects and hurts long ones.
+	 */
+	EAGER
+}
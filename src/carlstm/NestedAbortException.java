@@ -0,0 +1,18 @@
+package carlstm;
+
+/**
+ * Carries a {@link TransactionAbortedException} out of a nested call to
+ * {@link CarlSTM#execute}, which cannot throw it directly, up to the
+ * outermost transaction.
+ */
+@SuppressWarnings("serial")
+class NestedAbortException extends RuntimeException {
+	NestedAbortException(TransactionAbortedException cause) {
+		super(cause);
+	}
+
+	@Override
+	public synchronized TransactionAbortedException getCause() {
+		return (TransactionAbortedException) super.getCause();
+	}
+}
@@ -0,0 +1,23 @@
+package carlstm;
+
+/**
+ * How a transaction executed inside another transaction is nested in it.
+ * Either way the inner transaction becomes part of the outer one: its writes
+ * are only published when the outermost transaction commits, and a conflict
+ * anywhere aborts and restarts the outermost transaction.
+ */
+public enum Nesting {
+	/**
+	 * The inner transaction simply runs as part of the outer one. If it
+	 * throws, the writes it made before throwing stay in the outer
+	 * transaction.
+	 */
+	FLAT,
+	/**
+	 * The inner transaction runs in its own scope. If it throws, whether
+	 * through {@link CarlSTM#retry()} or any other exception, the writes it
+	 * made are discarded before the exception reaches the outer transaction,
+	 * which can catch it and carry on.
+	 */
+	CLOSED
+}
@@ -0,0 +1,54 @@
+package carlstm;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The default contention manager. A transaction that finds an object owned
+ * waits a bounded number of times for it to be released and then aborts
+ * itself. After an abort it sleeps for an exponentially growing, randomly
+ * jittered time, so that threads which collided do not all retry in lockstep.
+ */
+public class PoliteContentionManager implements ContentionManager {
+	private final long baseBackoffNanos;
+	private final long maxBackoffNanos;
+	private final int maxWaits;
+
+	/**
+	 * Create a manager with a 1us base backoff, capped at 1ms, that waits at
+	 * most 64 times on an owned object.
+	 */
+	public PoliteContentionManager() {
+		this(1000, 1000000, 64);
+	}
+
+	/**
+	 * @param baseBackoffNanos
+	 *            backoff after the first abort
+	 * @param maxBackoffNanos
+	 *            upper bound on the backoff, before jitter
+	 * @param maxWaits
+	 *            number of times to wait on an owned object before aborting
+	 */
+	public PoliteContentionManager(long baseBackoffNanos, long maxBackoffNanos, int maxWaits) {
+		this.baseBackoffNanos = baseBackoffNanos;
+		this.maxBackoffNanos = maxBackoffNanos;
+		this.maxWaits = maxWaits;
+	}
+
+	@Override
+	public Resolution resolveConflict(Contender self, Contender other, int waits) {
+		return waits < maxWaits ? Resolution.WAIT : Resolution.ABORT_SELF;
+	}
+
+	@Override
+	public long backoffNanos(Contender self) {
+		int shift = Math.min(self.getAttempt() - 1, 62);
+		long backoff = baseBackoffNanos;
+		if (shift > 0) {
+			backoff = baseBackoffNanos > (maxBackoffNanos >> shift) ? maxBackoffNanos : baseBackoffNanos << shift;
+		}
+		backoff = Math.min(backoff, maxBackoffNanos);
+		// Sleep anywhere between half and one and a half times the backoff
+		return backoff / 2 + ThreadLocalRandom.current().nextLong(backoff + 1);
+	}
+}
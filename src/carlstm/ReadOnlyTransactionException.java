@@ -0,0 +1,11 @@
+package carlstm;
+
+/**
+ * This exception is thrown if a transaction executed with
+ * {@link CarlSTM#executeReadOnly(Transaction)} attempts to write a
+ * {@link TxObject}.
+ */
+@SuppressWarnings("serial")
+public class ReadOnlyTransactionException extends RuntimeException {
+
+}
@@ -0,0 +1,10 @@
+package carlstm;
+
+/**
+ * Thrown by {@link CarlSTM#retry()} to unwind a transaction that wants to wait
+ * until one of the TxObjects it read changes.
+ */
+@SuppressWarnings("serial")
+class RetryException extends TransactionAbortedException {
+
+}
@@ -0,0 +1,385 @@
+package carlstm;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * A snapshot of the statistics of the transactions run so far. Every thread
+ * records its own statistics without synchronization; {@link #snapshot()}
+ * adds up those of all threads, including threads that have finished. A
+ * snapshot taken while transactions run may miss their latest updates.
+ *
+ * Commits count transactions, not attempts: a transaction that aborted three
+ * times and then committed counts one commit, three aborts and four attempts.
+ * Transactions nested in another one are part of it and are not counted on
+ * their own.
+ */
+public final class StmStatistics {
+	/**
+	 * Name under which {@link #registerMBean()} registers the statistics
+	 */
+	public static final String MBEAN_NAME = "carlstm:type=StmStatistics";
+
+	private final long commits;
+	private final long[] aborts;
+	private final long fallbacks;
+	private final long fallbackNanos;
+	private final Histogram attempts;
+	private final Histogram readSetSizes;
+	private final Histogram writeSetSizes;
+	private final Histogram commitLatency;
+	private final Histogram transactionLatency;
+
+	StmStatistics(ThreadStatistics total) {
+		commits = total.commits;
+		aborts = total.aborts.clone();
+		fallbacks = total.fallbacks;
+		fallbackNanos = total.fallbackNanos;
+		attempts = new Histogram(total.attempts);
+		readSetSizes = new Histogram(total.readSetSizes);
+		writeSetSizes = new Histogram(total.writeSetSizes);
+		commitLatency = new Histogram(total.commitNanos);
+		transactionLatency = new Histogram(total.transactionNanos);
+	}
+
+	/**
+	 * @return the statistics of all threads
+	 */
+	public static StmStatistics snapshot() {
+		return TxInfo.collectStatistics();
+	}
+
+	/**
+	 * @return the statistics of the calling thread
+	 */
+	public static StmStatistics currentThread() {
+		TxInfo threadTxInfo = CarlSTM.TxInfoThreadLocal.get();
+		ThreadStatistics total = new ThreadStatistics();
+		if (threadTxInfo != null) {
+			threadTxInfo.statistics.addTo(total);
+		}
+		return new StmStatistics(total);
+	}
+
+	/**
+	 * Register a {@link StmStatisticsMXBean} with the platform MBean server
+	 * under {@link #MBEAN_NAME}. Does nothing if it is already registered.
+	 *
+	 * @throws IllegalStateException
+	 *             if the registration fails
+	 */
+	public static void registerMBean() {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(
+					new StandardMBean(new MXBeanImpl(), StmStatisticsMXBean.class, true), new ObjectName(MBEAN_NAME));
+		} catch (InstanceAlreadyExistsException e) {
+			// Registered before
+		} catch (JMException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @param earlier
+	 *            a snapshot taken before this one
+	 * @return the statistics of the transactions recorded between the two
+	 *         snapshots
+	 */
+	public StmStatistics since(StmStatistics earlier) {
+		ThreadStatistics delta = new ThreadStatistics();
+		delta.commits = commits - earlier.commits;
+		for (int i = 0; i < aborts.length; i++) {
+			delta.aborts[i] = aborts[i] - earlier.aborts[i];
+		}
+		delta.fallbacks = fallbacks - earlier.fallbacks;
+		delta.fallbackNanos = fallbackNanos - earlier.fallbackNanos;
+		attempts.subtract(earlier.attempts, delta.attempts);
+		readSetSizes.subtract(earlier.readSetSizes, delta.readSetSizes);
+		writeSetSizes.subtract(earlier.writeSetSizes, delta.writeSetSizes);
+		commitLatency.subtract(earlier.commitLatency, delta.commitNanos);
+		transactionLatency.subtract(earlier.transactionLatency, delta.transactionNanos);
+		return new StmStatistics(delta);
+	}
+
+	/**
+	 * @return number of committed transactions
+	 */
+	public long getCommits() {
+		return commits;
+	}
+
+	/**
+	 * @return number of aborted attempts, whatever the cause
+	 */
+	public long getAborts() {
+		long total = 0;
+		for (long count : aborts) {
+			total += count;
+		}
+		return total;
+	}
+
+	/**
+	 * @param cause
+	 * @return number of attempts aborted for the given cause
+	 */
+	public long getAborts(AbortCause cause) {
+		return aborts[cause.ordinal()];
+	}
+
+	/**
+	 * @return number of attempts run irrevocably because their transaction
+	 *         had aborted too often, see {@link CarlSTM#setFallbackThreshold}
+	 */
+	public long getFallbacks() {
+		return fallbacks;
+	}
+
+	/**
+	 * @return total time spent in those attempts, including the wait for
+	 *         their turn, in nanoseconds
+	 */
+	public long getFallbackNanos() {
+		return fallbackNanos;
+	}
+
+	/**
+	 * @return attempts made by each committed transaction
+	 */
+	public Histogram getAttempts() {
+		return attempts;
+	}
+
+	/**
+	 * @return number of reads recorded by each committed transaction
+	 */
+	public Histogram getReadSetSizes() {
+		return readSetSizes;
+	}
+
+	/**
+	 * @return number of TxObjects written by each committed transaction
+	 */
+	public Histogram getWriteSetSizes() {
+		return writeSetSizes;
+	}
+
+	/**
+	 * @return time taken by the successful commit of each transaction, in
+	 *         nanoseconds
+	 */
+	public Histogram getCommitLatency() {
+		return commitLatency;
+	}
+
+	/**
+	 * @return time from the start of the first attempt of each transaction
+	 *         to its commit, in nanoseconds
+	 */
+	public Histogram getTransactionLatency() {
+		return transactionLatency;
+	}
+
+	@Override
+	public String toString() {
+		return "commits: " + commits + ", aborts: " + getAborts() + ", fallbacks: " + fallbacks
+				+ ", mean attempts: " + attempts.getMean() + ", p99 commit latency: "
+				+ commitLatency.getPercentile(99) + " ns";
+	}
+
+	/**
+	 * A histogram of non-negative values in power-of-two buckets: bucket 0
+	 * counts the value 0 and bucket b &gt; 0 counts the values from 2^(b-1) to
+	 * 2^b - 1.
+	 */
+	public static final class Histogram {
+		static final int BUCKETS = 65;
+
+		private final long[] counts;
+		private final long count;
+
+		Histogram(long[] counts) {
+			this.counts = counts.clone();
+			long total = 0;
+			for (long c : counts) {
+				total += c;
+			}
+			count = total;
+		}
+
+		/**
+		 * Store the counts of this histogram minus those of an earlier one
+		 * 
+		 * @param earlier
+		 * @param delta
+		 *            array of {@link #BUCKETS} counts
+		 */
+		void subtract(Histogram earlier, long[] delta) {
+			for (int bucket = 0; bucket < BUCKETS; bucket++) {
+				delta[bucket] = counts[bucket] - earlier.counts[bucket];
+			}
+		}
+
+		static int bucketOf(long value) {
+			return 64 - Long.numberOfLeadingZeros(value);
+		}
+
+		/**
+		 * @param bucket
+		 * @return largest value counted in the bucket
+		 */
+		public static long bucketUpperBound(int bucket) {
+			return bucket == 64 ? Long.MAX_VALUE : (1L << bucket) - 1;
+		}
+
+		/**
+		 * @return number of values counted
+		 */
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * @param bucket
+		 * @return number of values counted in the bucket
+		 */
+		public long getCount(int bucket) {
+			return counts[bucket];
+		}
+
+		/**
+		 * @param percentile
+		 *            between 0 and 100
+		 * @return upper bound of the bucket holding the given percentile, or
+		 *         0 if nothing was counted
+		 */
+		public long getPercentile(double percentile) {
+			if (percentile < 0 || percentile > 100) {
+				throw new IllegalArgumentException("percentile: " + percentile);
+			}
+			long rank = (long) Math.ceil(count * percentile / 100);
+			long seen = 0;
+			for (int bucket = 0; bucket < BUCKETS; bucket++) {
+				seen += counts[bucket];
+				if (seen >= rank && seen > 0) {
+					return bucketUpperBound(bucket);
+				}
+			}
+			return 0;
+		}
+
+		/**
+		 * @return mean of the values, taking each at the middle of its
+		 *         bucket, or 0 if nothing was counted
+		 */
+		public double getMean() {
+			if (count == 0) {
+				return 0;
+			}
+			double sum = 0;
+			for (int bucket = 1; bucket < BUCKETS; bucket++) {
+				sum += counts[bucket] * ((double) (1L << (bucket - 1)) + bucketUpperBound(bucket)) / 2;
+			}
+			return sum / count;
+		}
+
+		@Override
+		public String toString() {
+			return Arrays.toString(counts);
+		}
+	}
+
+	private static final class MXBeanImpl implements StmStatisticsMXBean {
+		@Override
+		public long getCommits() {
+			return snapshot().getCommits();
+		}
+
+		@Override
+		public long getAborts() {
+			return snapshot().getAborts();
+		}
+
+		@Override
+		public Map<String, Long> getAbortsByCause() {
+			StmStatistics statistics = snapshot();
+			Map<String, Long> aborts = new LinkedHashMap<String, Long>();
+			for (AbortCause cause : AbortCause.values()) {
+				aborts.put(cause.name(), statistics.getAborts(cause));
+			}
+			return aborts;
+		}
+
+		@Override
+		public long getFallbacks() {
+			return snapshot().getFallbacks();
+		}
+
+		@Override
+		public long getFallbackNanos() {
+			return snapshot().getFallbackNanos();
+		}
+
+		@Override
+		public double getMeanAttempts() {
+			return snapshot().getAttempts().getMean();
+		}
+
+		@Override
+		public long getCommitLatencyNanosP50() {
+			return snapshot().getCommitLatency().getPercentile(50);
+		}
+
+		@Override
+		public long getCommitLatencyNanosP99() {
+			return snapshot().getCommitLatency().getPercentile(99);
+		}
+
+		@Override
+		public long getCommitLatencyNanosP999() {
+			return snapshot().getCommitLatency().getPercentile(99.9);
+		}
+
+		@Override
+		public long getTransactionLatencyNanosP50() {
+			return snapshot().getTransactionLatency().getPercentile(50);
+		}
+
+		@Override
+		public long getTransactionLatencyNanosP99() {
+			return snapshot().getTransactionLatency().getPercentile(99);
+		}
+
+		@Override
+		public long getTransactionLatencyNanosP999() {
+			return snapshot().getTransactionLatency().getPercentile(99.9);
+		}
+
+		@Override
+		public long getReadSetSizeP50() {
+			return snapshot().getReadSetSizes().getPercentile(50);
+		}
+
+		@Override
+		public long getReadSetSizeP99() {
+			return snapshot().getReadSetSizes().getPercentile(99);
+		}
+
+		@Override
+		public long getWriteSetSizeP50() {
+			return snapshot().getWriteSetSizes().getPercentile(50);
+		}
+
+		@Override
+		public long getWriteSetSizeP99() {
+			return snapshot().getWriteSetSizes().getPercentile(99);
+		}
+	}
+}
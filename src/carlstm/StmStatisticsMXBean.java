@@ -0,0 +1,46 @@
+package carlstm;
+
+import java.util.Map;
+
+/**
+ * The JMX view of {@link StmStatistics}, registered with
+ * {@link StmStatistics#registerMBean()}. Every attribute is read from a fresh
+ * {@link StmStatistics#snapshot()}. Percentiles are upper bounds of
+ * power-of-two buckets, so they are accurate to within a factor of two.
+ */
+public interface StmStatisticsMXBean {
+	long getCommits();
+
+	long getAborts();
+
+	/**
+	 * @return aborts by {@link AbortCause} name
+	 */
+	Map<String, Long> getAbortsByCause();
+
+	long getFallbacks();
+
+	long getFallbackNanos();
+
+	double getMeanAttempts();
+
+	long getCommitLatencyNanosP50();
+
+	long getCommitLatencyNanosP99();
+
+	long getCommitLatencyNanosP999();
+
+	long getTransactionLatencyNanosP50();
+
+	long getTransactionLatencyNanosP99();
+
+	long getTransactionLatencyNanosP999();
+
+	long getReadSetSizeP50();
+
+	long getReadSetSizeP99();
+
+	long getWriteSetSizeP50();
+
+	long getWriteSetSizeP99();
+}
@@ -0,0 +1,52 @@
+package carlstm;
+
+/**
+ * The statistics of one thread's transactions. Only the owning thread updates
+ * them, with plain writes, so recording costs no more than an increment;
+ * {@link StmStatistics} sums the statistics of all threads on demand.
+ */
+final class ThreadStatistics {
+	long commits;
+	final long[] aborts = new long[AbortCause.values().length];
+	long fallbacks;
+	long fallbackNanos;
+	final long[] attempts = new long[StmStatistics.Histogram.BUCKETS];
+	final long[] readSetSizes = new long[StmStatistics.Histogram.BUCKETS];
+	final long[] writeSetSizes = new long[StmStatistics.Histogram.BUCKETS];
+	final long[] commitNanos = new long[StmStatistics.Histogram.BUCKETS];
+	final long[] transactionNanos = new long[StmStatistics.Histogram.BUCKETS];
+
+	/**
+	 * Count a value in a histogram
+	 *
+	 * @param histogram
+	 * @param value
+	 *            non-negative value
+	 */
+	static void record(long[] histogram, long value) {
+		histogram[StmStatistics.Histogram.bucketOf(value)]++;
+	}
+
+	/**
+	 * Add these statistics to a running total
+	 *
+	 * @param total
+	 */
+	void addTo(ThreadStatistics total) {
+		total.commits += commits;
+		add(aborts, total.aborts);
+		total.fallbacks += fallbacks;
+		total.fallbackNanos += fallbackNanos;
+		add(attempts, total.attempts);
+		add(readSetSizes, total.readSetSizes);
+		add(writeSetSizes, total.writeSetSizes);
+		add(commitNanos, total.commitNanos);
+		add(transactionNanos, total.transactionNanos);
+	}
+
+	private static void add(long[] from, long[] to) {
+		for (int i = 0; i < from.length; i++) {
+			to[i] += from[i];
+		}
+	}
+}
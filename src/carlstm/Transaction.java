@@ -44,4 +44,24 @@ public interface Transaction<T> {
 	 */
 	public T run() throws NoActiveTransactionException,
 			TransactionAbortedException;
+
+	/**
+	 * The main computation performed by this transaction, given a handle on
+	 * the running transaction. This is what {@link CarlSTM#execute} calls; by
+	 * default it simply calls {@link #run()}. Transactions on hot paths can
+	 * override it and pass the context to {@link TxObject#read(TxContext)} and
+	 * {@link TxObject#write(TxContext, Object)} to avoid looking up the
+	 * transaction on every access, implementing {@link #run()} as
+	 * <code>return run(CarlSTM.currentContext());</code>.
+	 * 
+	 * @param context the running transaction
+	 * @return the result of executing the transaction
+	 * @throws NoActiveTransactionException may be thrown if called outside of
+	 *             {@link CarlSTM#execute}
+	 * @throws TransactionAbortedException if the transaction aborts mid-run.
+	 */
+	public default T run(TxContext context) throws NoActiveTransactionException,
+			TransactionAbortedException {
+		return run();
+	}
 }
@@ -0,0 +1,37 @@
+package carlstm;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder event for an aborted transaction attempt
+ */
+@Name("carlstm.TransactionAbort")
+@Label("Transaction Abort")
+@Category("CarlSTM")
+@Description("A transaction attempt aborts")
+final class TransactionAbortEvent extends jdk.jfr.Event {
+	@Label("Attempt")
+	@Description("Number of aborted attempts of the transaction before this one")
+	int attempt;
+
+	@Label("Read Set Size")
+	int readSetSize;
+
+	@Label("Write Set Size")
+	int writeSetSize;
+
+	@Label("Attempt Duration")
+	@Timespan(Timespan.NANOSECONDS)
+	long attemptDuration;
+
+	@Label("Cause")
+	String cause;
+
+	@Label("Conflicting Object")
+	@Description("Label of the TxObject the conflict was detected on, see TxObject.setLabel")
+	String conflictObject;
+}
@@ -1,8 +1,9 @@
 package carlstm;
 
 /**
- * This transaction is thrown if {@link CarlSTM#execute(Transaction)} is called
- * within an already-executing transaction.
+ * This exception is thrown if a transaction is started on a thread that is
+ * already executing one in a way that cannot be nested.
+ * {@link CarlSTM#execute(Transaction)} itself nests, see {@link Nesting}.
  */
 @SuppressWarnings("serial")
 public class TransactionAlreadyActiveException extends RuntimeException {
@@ -0,0 +1,22 @@
+package carlstm;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event for the start of a transaction attempt
+ */
+@Name("carlstm.TransactionBegin")
+@Label("Transaction Begin")
+@Category("CarlSTM")
+@Description("A transaction attempt starts")
+final class TransactionBeginEvent extends jdk.jfr.Event {
+	@Label("Attempt")
+	@Description("Number of aborted attempts of the transaction before this one")
+	int attempt;
+
+	@Label("Read Only")
+	boolean readOnly;
+}
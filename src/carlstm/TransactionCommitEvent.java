@@ -0,0 +1,34 @@
+package carlstm;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder event for a committed transaction
+ */
+@Name("carlstm.TransactionCommit")
+@Label("Transaction Commit")
+@Category("CarlSTM")
+@Description("A transaction commits")
+final class TransactionCommitEvent extends jdk.jfr.Event {
+	@Label("Attempt")
+	@Description("Number of aborted attempts of the transaction before this one")
+	int attempt;
+
+	@Label("Read Set Size")
+	int readSetSize;
+
+	@Label("Write Set Size")
+	int writeSetSize;
+
+	@Label("Attempt Duration")
+	@Timespan(Timespan.NANOSECONDS)
+	long attemptDuration;
+
+	@Label("Commit Duration")
+	@Timespan(Timespan.NANOSECONDS)
+	long commitDuration;
+}
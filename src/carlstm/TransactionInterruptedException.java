@@ -0,0 +1,16 @@
+package carlstm;
+
+/**
+ * This exception is thrown by {@link CarlSTM#execute} if the thread is
+ * interrupted while a transaction waits to run again, after calling
+ * {@link CarlSTM#retry()} or while backing off after an abort. The
+ * transaction has had no effect when this is thrown, and the thread's
+ * interrupt status is set again.
+ */
+@SuppressWarnings("serial")
+public class TransactionInterruptedException extends RuntimeException {
+
+	public TransactionInterruptedException(InterruptedException cause) {
+		super(cause);
+	}
+}
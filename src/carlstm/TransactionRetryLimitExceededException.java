@@ -0,0 +1,23 @@
+package carlstm;
+
+/**
+ * This exception is thrown by {@link CarlSTM#execute} if a transaction keeps
+ * aborting after it used up its retry budget. The transaction has had no
+ * effect when this is thrown.
+ */
+@SuppressWarnings("serial")
+public class TransactionRetryLimitExceededException extends RuntimeException {
+	private final int attempts;
+
+	public TransactionRetryLimitExceededException(int attempts) {
+		super("Transaction aborted " + attempts + " times");
+		this.attempts = attempts;
+	}
+
+	/**
+	 * @return number of aborted attempts
+	 */
+	public int getAttempts() {
+		return attempts;
+	}
+}
@@ -0,0 +1,454 @@
+package carlstm;
+
+import java.util.Arrays;
+
+/**
+ * The write set of a transaction. Every TxObject the transaction writes gets
+ * one entry holding the lock word it had when it was first accessed, the value
+ * the transaction currently sees for it, and whether the transaction still
+ * writes it. Values of primitive cells are kept as raw bits in a separate
+ * array, so they are never boxed. Objects that are only read are recorded in
+ * a {@link TxReadLog} instead.
+ *
+ * An entry can also be additive: it records a delta to be added to a
+ * primitive cell at commit time without the transaction ever having read the
+ * cell. Such an entry has no read version until the transaction reads the
+ * cell, at which point the delta is folded into the value read.
+ *
+ * Changes can be made inside nested scopes (see {@link #beginScope()}). The
+ * first time an entry is changed inside a scope, its previous state is pushed
+ * on an undo log, so that rolling the scope back reverts exactly the writes
+ * made inside it. Entries first written inside a rolled back scope stay in the
+ * set as unwritten entries, because the outcome of the transaction still
+ * depends on the values they read.
+ *
+ * Entries are kept in insertion order in parallel arrays. Small sets are
+ * searched linearly; once a set outgrows {@link #LINEAR_LIMIT} entries an
+ * open-addressing index keyed by the cells' ids is built on top of the
+ * arrays. A small Bloom filter over the ids of the entries answers most
+ * lookups of objects that are not in the set, which is what nearly every read
+ * of a transaction that reads much more than it writes does, without
+ * searching. Nothing is reallocated between transactions: {@link #clear()} only
+ * resets the entries that were used, so a thread running many short
+ * transactions stops allocating once its set has grown to the size of its
+ * largest transaction.
+ */
+final class TxAccessSet {
+	// Sets up to this size are searched linearly, without the hash index
+	private static final int LINEAR_LIMIT = 8;
+	private static final int INITIAL_CAPACITY = 16;
+	// Size of the Bloom filter: 4 words of 64 bits
+	private static final int FILTER_WORDS = 4;
+	private static final int FILTER_SHIFT = 32 - 8;
+
+	private TxCell[] keys = new TxCell[INITIAL_CAPACITY];
+	private long[] versions = new long[INITIAL_CAPACITY];
+	private Object[] values = new Object[INITIAL_CAPACITY];
+	private long[] bits = new long[INITIAL_CAPACITY];
+	private boolean[] written = new boolean[INITIAL_CAPACITY];
+	private boolean[] additive = new boolean[INITIAL_CAPACITY];
+	// Lock word the object had when this transaction locked it, with the
+	// lock bit set; 0 if it is not locked. Not covered by the undo log: a lock
+	// taken inside a scope is held until the transaction ends.
+	private long[] lockWords = new long[INITIAL_CAPACITY];
+	private int size;
+	private int writeCount;
+	// Open-addressing index: entry index + 1, or 0 for an empty slot. Only
+	// maintained while size > LINEAR_LIMIT.
+	private int[] index = new int[INITIAL_CAPACITY * 2];
+	private int indexShift = 32 - Integer.numberOfTrailingZeros(INITIAL_CAPACITY * 2);
+	private boolean indexed;
+	// Bloom filter over the ids of the keys: one bit per key, never cleared
+	// before the set is
+	private final long[] filter = new long[FILTER_WORDS];
+	// Serial number of the scope in which each entry was last saved on the
+	// undo log; an entry needs saving if this is older than the current scope
+	private int[] loggedSerials = new int[INITIAL_CAPACITY];
+	// Open scopes: undo log height when each began, and the serial of the
+	// enclosing scope to return to
+	private int depth;
+	private int[] scopeMarks = new int[4];
+	private int[] scopeParentSerials = new int[4];
+	// Serial of the innermost open scope, 0 at top level
+	private int currentSerial;
+	private int lastSerial;
+	// Undo log: saved state of an entry before its first change in a scope
+	private int undoSize;
+	private int[] undoEntries = new int[INITIAL_CAPACITY];
+	private long[] undoVersions = new long[INITIAL_CAPACITY];
+	private Object[] undoValues = new Object[INITIAL_CAPACITY];
+	private long[] undoBits = new long[INITIAL_CAPACITY];
+	private boolean[] undoWritten = new boolean[INITIAL_CAPACITY];
+	private boolean[] undoAdditive = new boolean[INITIAL_CAPACITY];
+	private int[] undoLoggedSerials = new int[INITIAL_CAPACITY];
+
+	/**
+	 * @return number of TxObjects in the set
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * @return number of TxObjects written by the transaction
+	 */
+	int writeCount() {
+		return writeCount;
+	}
+
+	/**
+	 * Find the entry of a TxObject
+	 *
+	 * @param key
+	 * @return index of its entry, or -1 if the transaction has not touched it
+	 */
+	int indexOf(TxCell key) {
+		int bit = filterBit(key);
+		if ((filter[bit >>> 6] & (1L << bit)) == 0) {
+			return -1;
+		}
+		if (!indexed) {
+			for (int i = 0; i < size; i++) {
+				if (keys[i] == key) {
+					return i;
+				}
+			}
+			return -1;
+		}
+		int mask = index.length - 1;
+		for (int slot = slotOf(key);; slot = (slot + 1) & mask) {
+			int entry = index[slot];
+			if (entry == 0) {
+				return -1;
+			}
+			if (keys[entry - 1] == key) {
+				return entry - 1;
+			}
+		}
+	}
+
+	/**
+	 * Add an entry for a TxObject that is not in the set yet
+	 *
+	 * @param key
+	 * @param version
+	 *            lock word of the object when it was read
+	 * @param value
+	 *            value of the object when it was read, if it is a reference
+	 * @param valueBits
+	 *            value of the object when it was read, if it is a primitive
+	 * @return index of the new entry
+	 */
+	int add(TxCell key, long version, Object value, long valueBits) {
+		int entry = newEntry(key, version, value, valueBits, false);
+		save(entry);
+		return entry;
+	}
+
+	/**
+	 * Add an additive entry for a primitive cell that is not in the set yet
+	 *
+	 * @param key
+	 * @param delta
+	 *            amount to add to the cell at commit time
+	 * @return index of the new entry
+	 */
+	int addAdditive(TxCell key, long delta) {
+		// Start from an inert entry (additive, nothing to add) so that rolling
+		// back a scope leaves nothing to lock or validate
+		int entry = newEntry(key, 0, null, 0, true);
+		save(entry);
+		writeBits(entry, delta);
+		return entry;
+	}
+
+	private int newEntry(TxCell key, long version, Object value, long valueBits, boolean isAdditive) {
+		if (size == keys.length) {
+			grow();
+		}
+		int entry = size++;
+		keys[entry] = key;
+		versions[entry] = version;
+		values[entry] = value;
+		bits[entry] = valueBits;
+		written[entry] = false;
+		additive[entry] = isAdditive;
+		lockWords[entry] = 0;
+		loggedSerials[entry] = 0;
+		int bit = filterBit(key);
+		filter[bit >>> 6] |= 1L << bit;
+		index(entry);
+		return entry;
+	}
+
+	private void index(int entry) {
+		if (indexed) {
+			if (size * 2 > index.length) {
+				rebuildIndex(index.length * 2);
+			} else {
+				insertIntoIndex(entry);
+			}
+		} else if (size > LINEAR_LIMIT) {
+			rebuildIndex(Math.max(index.length, Integer.highestOneBit(size) * 4));
+		}
+	}
+
+	TxCell key(int entry) {
+		return keys[entry];
+	}
+
+	long version(int entry) {
+		return versions[entry];
+	}
+
+	Object value(int entry) {
+		return values[entry];
+	}
+
+	long bits(int entry) {
+		return bits[entry];
+	}
+
+	boolean isWritten(int entry) {
+		return written[entry];
+	}
+
+	boolean isAdditive(int entry) {
+		return additive[entry];
+	}
+
+	boolean isLocked(int entry) {
+		return lockWords[entry] != 0;
+	}
+
+	/**
+	 * @param entry
+	 * @return unlocked lock word the object had when it was locked
+	 */
+	long lockedVersion(int entry) {
+		return lockWords[entry] & ~1L;
+	}
+
+	/**
+	 * Record that the transaction locked the object of an entry
+	 *
+	 * @param entry
+	 * @param version
+	 *            unlocked lock word the object had when it was locked
+	 */
+	void setLocked(int entry, long version) {
+		lockWords[entry] = version | 1L;
+	}
+
+	void setUnlocked(int entry) {
+		lockWords[entry] = 0;
+	}
+
+	/**
+	 * Turn an additive entry into a written one once the transaction has read
+	 * the cell
+	 *
+	 * @param entry
+	 * @param version
+	 *            lock word of the cell when it was read
+	 * @param valueBits
+	 *            value read plus the pending delta
+	 */
+	void resolveAdditive(int entry, long version, long valueBits) {
+		save(entry);
+		versions[entry] = version;
+		bits[entry] = valueBits;
+		additive[entry] = false;
+	}
+
+	/**
+	 * Buffer a value written by the transaction
+	 *
+	 * @param entry
+	 * @param value
+	 */
+	void write(int entry, Object value) {
+		save(entry);
+		values[entry] = value;
+		markWritten(entry);
+	}
+
+	/**
+	 * Buffer a primitive value written by the transaction
+	 *
+	 * @param entry
+	 * @param valueBits
+	 */
+	void writeBits(int entry, long valueBits) {
+		save(entry);
+		bits[entry] = valueBits;
+		markWritten(entry);
+	}
+
+	private void markWritten(int entry) {
+		if (!written[entry]) {
+			written[entry] = true;
+			writeCount++;
+		}
+	}
+
+	/**
+	 * Open a nested scope. Changes made from now on can be reverted with
+	 * {@link #rollbackScope()} or kept with {@link #commitScope()}.
+	 */
+	void beginScope() {
+		if (depth == scopeMarks.length) {
+			scopeMarks = Arrays.copyOf(scopeMarks, depth * 2);
+			scopeParentSerials = Arrays.copyOf(scopeParentSerials, depth * 2);
+		}
+		scopeMarks[depth] = undoSize;
+		scopeParentSerials[depth] = currentSerial;
+		depth++;
+		currentSerial = ++lastSerial;
+	}
+
+	/**
+	 * Close the innermost scope, keeping its changes as part of the enclosing
+	 * scope
+	 */
+	void commitScope() {
+		depth--;
+		currentSerial = scopeParentSerials[depth];
+	}
+
+	/**
+	 * Close the innermost scope, reverting every change made inside it
+	 */
+	void rollbackScope() {
+		depth--;
+		int mark = scopeMarks[depth];
+		while (undoSize > mark) {
+			undoSize--;
+			int entry = undoEntries[undoSize];
+			versions[entry] = undoVersions[undoSize];
+			values[entry] = undoValues[undoSize];
+			bits[entry] = undoBits[undoSize];
+			additive[entry] = undoAdditive[undoSize];
+			if (written[entry] != undoWritten[undoSize]) {
+				written[entry] = undoWritten[undoSize];
+				writeCount += written[entry] ? 1 : -1;
+			}
+			loggedSerials[entry] = undoLoggedSerials[undoSize];
+			undoValues[undoSize] = null;
+		}
+		currentSerial = scopeParentSerials[depth];
+	}
+
+	/**
+	 * @return number of open scopes
+	 */
+	int depth() {
+		return depth;
+	}
+
+	/**
+	 * Save the state of an entry on the undo log before it is first changed
+	 * inside the current scope
+	 *
+	 * @param entry
+	 */
+	private void save(int entry) {
+		if (loggedSerials[entry] >= currentSerial) {
+			// At top level, or already saved in this scope
+			return;
+		}
+		if (undoSize == undoEntries.length) {
+			int capacity = undoSize * 2;
+			undoEntries = Arrays.copyOf(undoEntries, capacity);
+			undoVersions = Arrays.copyOf(undoVersions, capacity);
+			undoValues = Arrays.copyOf(undoValues, capacity);
+			undoBits = Arrays.copyOf(undoBits, capacity);
+			undoWritten = Arrays.copyOf(undoWritten, capacity);
+			undoAdditive = Arrays.copyOf(undoAdditive, capacity);
+			undoLoggedSerials = Arrays.copyOf(undoLoggedSerials, capacity);
+		}
+		undoEntries[undoSize] = entry;
+		undoVersions[undoSize] = versions[entry];
+		undoValues[undoSize] = values[entry];
+		undoBits[undoSize] = bits[entry];
+		undoWritten[undoSize] = written[entry];
+		undoAdditive[undoSize] = additive[entry];
+		undoLoggedSerials[undoSize] = loggedSerials[entry];
+		undoSize++;
+		loggedSerials[entry] = currentSerial;
+	}
+
+	/**
+	 * Empty the set, dropping the references it holds so that they can be
+	 * garbage collected
+	 */
+	void clear() {
+		if (indexed) {
+			int mask = index.length - 1;
+			for (int i = 0; i < size; i++) {
+				int slot = slotOf(keys[i]);
+				while (index[slot] != i + 1) {
+					slot = (slot + 1) & mask;
+				}
+				index[slot] = 0;
+			}
+			indexed = false;
+		}
+		for (int i = 0; i < size; i++) {
+			keys[i] = null;
+			values[i] = null;
+		}
+		size = 0;
+		writeCount = 0;
+		Arrays.fill(filter, 0);
+		for (int i = 0; i < undoSize; i++) {
+			undoValues[i] = null;
+		}
+		undoSize = 0;
+		depth = 0;
+		currentSerial = 0;
+		lastSerial = 0;
+	}
+
+	private static int filterBit(TxCell key) {
+		return (key.id * 0x85EBCA6B) >>> FILTER_SHIFT;
+	}
+
+	private int slotOf(TxCell key) {
+		return (key.id * 0x9E3779B9) >>> indexShift;
+	}
+
+	private void insertIntoIndex(int entry) {
+		int mask = index.length - 1;
+		int slot = slotOf(keys[entry]);
+		while (index[slot] != 0) {
+			slot = (slot + 1) & mask;
+		}
+		index[slot] = entry + 1;
+	}
+
+	private void rebuildIndex(int capacity) {
+		if (capacity != index.length) {
+			index = new int[capacity];
+			indexShift = 32 - Integer.numberOfTrailingZeros(capacity);
+		} else if (indexed) {
+			Arrays.fill(index, 0);
+		}
+		indexed = true;
+		for (int i = 0; i < size; i++) {
+			insertIntoIndex(i);
+		}
+	}
+
+	private void grow() {
+		int capacity = keys.length * 2;
+		keys = Arrays.copyOf(keys, capacity);
+		versions = Arrays.copyOf(versions, capacity);
+		values = Arrays.copyOf(values, capacity);
+		bits = Arrays.copyOf(bits, capacity);
+		written = Arrays.copyOf(written, capacity);
+		additive = Arrays.copyOf(additive, capacity);
+		lockWords = Arrays.copyOf(lockWords, capacity);
+		loggedSerials = Arrays.copyOf(loggedSerials, capacity);
+	}
+}
@@ -0,0 +1,189 @@
+package carlstm;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The transactional machinery shared by {@link TxObject} and the primitive
+ * cells {@link TxInt}, {@link TxLong} and {@link TxDouble}: a single versioned
+ * lock word, which also names the owner of the lock for contention
+ * management. A transaction buffers a cell's value either as a reference or
+ * as 64 raw bits, so that primitive cells are read, written and committed
+ * without boxing.
+ */
+abstract class TxCell {
+	private static final AtomicInteger nextId = new AtomicInteger();
+
+	/**
+	 * Stable identity of the cell. Committing transactions lock their write
+	 * sets in increasing id order, and access sets hash cells by it. Ids wrap
+	 * around after 2^32 cells; a repeated id only makes the order between the
+	 * two cells arbitrary.
+	 */
+	final int id = nextId.getAndIncrement();
+	private static final VarHandle VERSION_LOCK;
+	static {
+		try {
+			VERSION_LOCK = MethodHandles.lookup().findVarHandle(TxCell.class, "versionLock", long.class);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	/**
+	 * Versioned lock word. While the cell is unlocked, the low bit is clear
+	 * and the remaining bits hold the {@link VersionClock} value of the last
+	 * commit that wrote it. While a transaction holds the lock, the low bit is
+	 * set and the remaining bits hold the slot of the owner's TxInfo, see
+	 * {@link TxInfo#ownerOf(long)}; the version is kept by the owner.
+	 */
+	private volatile long versionLock;
+	/**
+	 * Set if every transaction locks the cell when it first writes it, see
+	 * {@link Locking#EAGER}
+	 */
+	volatile boolean eagerLocking;
+	/**
+	 * Name of the cell in conflict reports, see {@link ConflictProfiler}
+	 */
+	private String label = ConflictProfiler.allocationSite();
+
+	/**
+	 * @return the current value if it is a reference, null otherwise
+	 */
+	abstract Object refValue();
+
+	/**
+	 * @return the raw bits of the current value if it is a primitive, 0
+	 *         otherwise
+	 */
+	abstract long bitsValue();
+
+	/**
+	 * Store a committed value. Only called while the commit lock is held.
+	 * 
+	 * @param value
+	 *            new value if it is a reference
+	 * @param bits
+	 *            raw bits of the new value if it is a primitive
+	 * @param previousVersion
+	 *            unlocked lock word the cell had before it was locked
+	 */
+	abstract void publish(Object value, long bits, long previousVersion);
+
+	/**
+	 * @return the name of this object in conflict reports, or null if it has
+	 *         none
+	 */
+	public String getLabel() {
+		return label;
+	}
+
+	/**
+	 * Name this object in conflict reports: the aborts it causes are counted
+	 * under this label by {@link ConflictProfiler} and the Flight Recorder
+	 * abort events name it. Objects may share a label.
+	 * 
+	 * @param label
+	 *            null for none
+	 */
+	public void setLabel(String label) {
+		this.label = label;
+	}
+
+	/**
+	 * @return the label of the cell, or else its class and id
+	 */
+	String describe() {
+		String label = this.label;
+		return label != null ? label : getClass().getSimpleName() + "#" + id;
+	}
+
+	/**
+	 * @return the current versioned lock word
+	 */
+	long getVersionLock() {
+		return versionLock;
+	}
+
+	/**
+	 * Try to lock the cell, succeeding only if it is unlocked and still
+	 * carries the version the transaction read.
+	 * 
+	 * @param version
+	 *            unlocked lock word observed when the cell was read
+	 * @param lockWord
+	 *            locked word naming the transaction taking the lock
+	 * @return true if the lock was acquired
+	 */
+	boolean tryLock(long version, long lockWord) {
+		return VERSION_LOCK.compareAndSet(this, version, lockWord);
+	}
+
+	/**
+	 * Release the lock and stamp the cell with a version
+	 * 
+	 * @param version
+	 *            unlocked lock word to publish
+	 */
+	void unlock(long version) {
+		versionLock = version;
+	}
+
+	static boolean isLocked(long versionLock) {
+		return (versionLock & 1L) != 0;
+	}
+
+	/**
+	 * Build the unlocked lock word for a clock value
+	 * 
+	 * @param clockValue
+	 * @return lock word
+	 */
+	static long versionLockOf(long clockValue) {
+		return clockValue << 1;
+	}
+
+	/**
+	 * Extract the clock value from an unlocked lock word
+	 * 
+	 * @param versionLock
+	 * @return clock value of the last commit that wrote the cell
+	 */
+	static long clockOf(long versionLock) {
+		return versionLock >>> 1;
+	}
+
+	/**
+	 * Helper function to make sure that there is an active transaction running
+	 * 
+	 * @param context
+	 *            the transaction of the current thread, possibly null
+	 * @return the transaction state
+	 * @throws NoActiveTransactionException
+	 */
+	static TxInfo activeTxInfo(TxContext context) throws NoActiveTransactionException {
+		TxInfo threadTxInfo = (TxInfo) context;
+		if (threadTxInfo == null || !threadTxInfo.currentTransactionActive()) {
+			throw new NoActiveTransactionException();
+		}
+		return threadTxInfo;
+	}
+
+	/**
+	 * Helper function to make sure that a transaction may write
+	 * 
+	 * @param context
+	 *            the transaction of the current thread, possibly null
+	 * @return the transaction state
+	 * @throws NoActiveTransactionException
+	 */
+	static TxInfo writableTxInfo(TxContext context) throws NoActiveTransactionException {
+		TxInfo threadTxInfo = activeTxInfo(context);
+		if (threadTxInfo.isReadOnly()) {
+			throw new ReadOnlyTransactionException();
+		}
+		return threadTxInfo;
+	}
+}
@@ -0,0 +1,22 @@
+package carlstm;
+
+/**
+ * A handle on the transaction running on the current thread. It is passed to
+ * {@link Transaction#run(TxContext)} and can be handed to
+ * {@link TxObject#read(TxContext)} and {@link TxObject#write(TxContext, Object)}
+ * so that those accesses skip the thread-local lookup of the transaction.
+ * 
+ * A context is only valid on the thread that runs the transaction and only
+ * until {@link Transaction#run(TxContext)} returns.
+ */
+public interface TxContext {
+	/**
+	 * @return number of times the transaction has aborted so far
+	 */
+	public int getAttempt();
+
+	/**
+	 * @return true if the transaction was declared read-only
+	 */
+	public boolean isReadOnly();
+}
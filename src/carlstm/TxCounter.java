@@ -0,0 +1,139 @@
+package carlstm;
+
+/**
+ * A transactional counter whose updates commute. {@link #add} does not read
+ * the counter: it records a delta that is applied atomically when the
+ * transaction commits, so two transactions that only add to the same counter
+ * never abort each other. Reading the counter with {@link #get} makes the
+ * transaction depend on its value as usual.
+ * 
+ * The count is split over several stripes, and each thread adds to its own
+ * stripe, so concurrent commits rarely wait for one another. {@link #get}
+ * sums all the stripes, which makes it conflict with every concurrent add;
+ * counters suit values that are updated much more often than they are read.
+ */
+public final class TxCounter {
+	private final TxLong[] stripes;
+
+	/**
+	 * Create a counter starting at 0 with one stripe per available processor
+	 */
+	public TxCounter() {
+		this(0, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param initialValue
+	 *            starting value of the counter
+	 * @param stripes
+	 *            number of stripes, rounded up to a power of two
+	 */
+	public TxCounter(long initialValue, int stripes) {
+		if (stripes < 1) {
+			throw new IllegalArgumentException("stripes: " + stripes);
+		}
+		int count = Integer.highestOneBit(stripes);
+		if (count < stripes) {
+			count <<= 1;
+		}
+		this.stripes = new TxLong[count];
+		this.stripes[0] = new TxLong(initialValue);
+		for (int i = 1; i < count; i++) {
+			this.stripes[i] = new TxLong(0);
+		}
+	}
+
+	/**
+	 * Add to the counter inside the transaction
+	 * 
+	 * @param delta
+	 * @throws NoActiveTransactionException
+	 * @throws ReadOnlyTransactionException
+	 *             if the transaction was started with
+	 *             {@link CarlSTM#executeReadOnly}
+	 */
+	public void add(long delta) throws NoActiveTransactionException {
+		add(CarlSTM.TxInfoThreadLocal.get(), delta);
+	}
+
+	/**
+	 * Add to the counter inside the given transaction, without looking the
+	 * transaction up
+	 * 
+	 * @param context
+	 *            the running transaction, as passed to
+	 *            {@link Transaction#run(TxContext)}
+	 * @param delta
+	 * @throws NoActiveTransactionException
+	 * @throws ReadOnlyTransactionException
+	 *             if the transaction was started with
+	 *             {@link CarlSTM#executeReadOnly}
+	 */
+	public void add(TxContext context, long delta) throws NoActiveTransactionException {
+		TxInfo threadTxInfo = TxCell.writableTxInfo(context);
+		threadTxInfo.addTxBits(stripes[threadTxInfo.stripeHint & (stripes.length - 1)], delta);
+	}
+
+	/**
+	 * Add one to the counter inside the transaction
+	 * 
+	 * @throws NoActiveTransactionException
+	 */
+	public void increment() throws NoActiveTransactionException {
+		add(1);
+	}
+
+	/**
+	 * Subtract one from the counter inside the transaction
+	 * 
+	 * @throws NoActiveTransactionException
+	 */
+	public void decrement() throws NoActiveTransactionException {
+		add(-1);
+	}
+
+	/**
+	 * Get the value of the counter inside the transaction, including what the
+	 * transaction itself added
+	 * 
+	 * @return
+	 * @throws NoActiveTransactionException
+	 * @throws TransactionAbortedException
+	 */
+	public long get() throws NoActiveTransactionException, TransactionAbortedException {
+		return get(CarlSTM.TxInfoThreadLocal.get());
+	}
+
+	/**
+	 * Get the value of the counter inside the given transaction, without
+	 * looking the transaction up
+	 * 
+	 * @param context
+	 *            the running transaction, as passed to
+	 *            {@link Transaction#run(TxContext)}
+	 * @return
+	 * @throws NoActiveTransactionException
+	 * @throws TransactionAbortedException
+	 */
+	public long get(TxContext context) throws NoActiveTransactionException, TransactionAbortedException {
+		long sum = 0;
+		for (TxLong stripe : stripes) {
+			sum += stripe.read(context);
+		}
+		return sum;
+	}
+
+	/**
+	 * return the sum of the true values of the stripes. This is not atomic
+	 * with respect to concurrent commits.
+	 * 
+	 * @return value
+	 */
+	public long getTrueValue() {
+		long sum = 0;
+		for (TxLong stripe : stripes) {
+			sum += stripe.getTrueValue();
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,100 @@
+package carlstm;
+
+/**
+ * A TxDouble is a transactional cell holding a single double. It behaves like a
+ * {@link TxObject}&lt;Double&gt;, but the value is stored, buffered and committed as
+ * a primitive, so reading and writing it inside a transaction never boxes.
+ */
+public final class TxDouble extends TxCell {
+	volatile double value;
+
+	public TxDouble(double value) {
+		this.value = value;
+	}
+
+	/**
+	 * Get the current value of the TxDouble inside the transaction
+	 * 
+	 * @return
+	 * @throws NoActiveTransactionException
+	 * @throws TransactionAbortedException
+	 */
+	public double read() throws NoActiveTransactionException, TransactionAbortedException {
+		return read(CarlSTM.TxInfoThreadLocal.get());
+	}
+
+	/**
+	 * Get the current value of the TxDouble inside the given transaction, without
+	 * looking the transaction up
+	 * 
+	 * @param context
+	 *            the running transaction, as passed to
+	 *            {@link Transaction#run(TxContext)}
+	 * @return
+	 * @throws NoActiveTransactionException
+	 * @throws TransactionAbortedException
+	 */
+	public double read(TxContext context) throws NoActiveTransactionException, TransactionAbortedException {
+		TxInfo threadTxInfo = activeTxInfo(context);
+		if (threadTxInfo.isReadOnly()) {
+			return Double.longBitsToDouble(threadTxInfo.readSnapshotBits(this));
+		}
+		return Double.longBitsToDouble(threadTxInfo.readTxBits(this));
+	}
+
+	/**
+	 * Change the value of the TxDouble inside the transaction, lazy buffer is used
+	 * 
+	 * @param value
+	 * @throws NoActiveTransactionException
+	 * @throws TransactionAbortedException
+	 * @throws ReadOnlyTransactionException
+	 *             if the transaction was started with
+	 *             {@link CarlSTM#executeReadOnly}
+	 */
+	public void write(double value) throws NoActiveTransactionException, TransactionAbortedException {
+		write(CarlSTM.TxInfoThreadLocal.get(), value);
+	}
+
+	/**
+	 * Change the value of the TxDouble inside the given transaction, without
+	 * looking the transaction up
+	 * 
+	 * @param context
+	 *            the running transaction, as passed to
+	 *            {@link Transaction#run(TxContext)}
+	 * @param value
+	 * @throws NoActiveTransactionException
+	 * @throws TransactionAbortedException
+	 * @throws ReadOnlyTransactionException
+	 *             if the transaction was started with
+	 *             {@link CarlSTM#executeReadOnly}
+	 */
+	public void write(TxContext context, double value) throws NoActiveTransactionException, TransactionAbortedException {
+		writableTxInfo(context).writeTxBits(this, Double.doubleToRawLongBits(value));
+	}
+
+	@Override
+	Object refValue() {
+		return null;
+	}
+
+	@Override
+	long bitsValue() {
+		return Double.doubleToRawLongBits(value);
+	}
+
+	@Override
+	void publish(Object value, long bits, long previousVersion) {
+		this.value = Double.longBitsToDouble(bits);
+	}
+
+	/**
+	 * return the true value field of the TxDouble
+	 * 
+	 * @return value
+	 */
+	public double getTrueValue() {
+		return value;
+	}
+}
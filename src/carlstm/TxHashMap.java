@@ -0,0 +1,323 @@
+package carlstm;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A transactional hash map. Every method must be called inside a transaction
+ * and takes part in it, so several updates to one or more maps commit or
+ * abort together.
+ *
+ * Each bucket is a {@link TxObject} holding an immutable chain of entries, so
+ * transactions that touch different buckets do not conflict. The size is a
+ * {@link TxCounter}: adding or removing a key does not read it, and only
+ * {@link #size()} conflicts with concurrent updates.
+ *
+ * The table doubles when it is three quarters full. A resize does not move
+ * every entry at once: each update made while it is under way moves a couple
+ * of buckets to the new table and leaves a marker in the old ones, and
+ * lookups follow the marker. The last update of the resize installs the new
+ * table. Only starting and finishing a resize conflict with all concurrent
+ * operations.
+ *
+ * Keys and values must not be null.
+ *
+ * @param <K>
+ *            type of the keys
+ * @param <V>
+ *            type of the values
+ */
+public final class TxHashMap<K, V> {
+	// Old buckets each update moves while a resize is under way
+	private static final int MOVES_PER_UPDATE = 2;
+
+	/**
+	 * An entry of a bucket's chain. Immutable: an update copies the chain up
+	 * to the entry it changes.
+	 */
+	private static final class Node {
+		final Object key;
+		final Object value;
+		final int hash;
+		final Node next;
+
+		Node(Object key, Object value, int hash, Node next) {
+			this.key = key;
+			this.value = value;
+			this.hash = hash;
+			this.next = next;
+		}
+	}
+
+	// Left in a bucket of the old table once its entries have moved
+	private static final Node MOVED = new Node(null, null, 0, null);
+
+	/**
+	 * The table and, during a resize, the table replacing it. Immutable: a
+	 * resize starts and ends by installing a new Tables.
+	 */
+	private static final class Tables {
+		final TxObject<Node>[] buckets;
+		final TxObject<Node>[] next;
+		// Next old bucket to move. Taking a bucket is not transactional, so a
+		// bucket taken by an aborted transaction may be left behind; the
+		// update that finishes the resize moves any such bucket.
+		final AtomicInteger moveCursor;
+
+		Tables(TxObject<Node>[] buckets, TxObject<Node>[] next) {
+			this.buckets = buckets;
+			this.next = next;
+			moveCursor = next == null ? null : new AtomicInteger();
+		}
+	}
+
+	private final TxObject<Tables> tables;
+	private final TxCounter size = new TxCounter();
+
+	/**
+	 * Create an empty map with 16 buckets
+	 */
+	public TxHashMap() {
+		this(16);
+	}
+
+	/**
+	 * Create an empty map
+	 *
+	 * @param initialCapacity
+	 *            number of buckets to start with, rounded up to a power of two
+	 */
+	public TxHashMap(int initialCapacity) {
+		if (initialCapacity < 1) {
+			throw new IllegalArgumentException("initialCapacity: " + initialCapacity);
+		}
+		int capacity = Integer.highestOneBit(initialCapacity);
+		if (capacity < initialCapacity) {
+			capacity <<= 1;
+		}
+		tables = new TxObject<Tables>(new Tables(newBuckets(capacity), null));
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static TxObject<Node>[] newBuckets(int capacity) {
+		TxObject<Node>[] buckets = new TxObject[capacity];
+		for (int i = 0; i < capacity; i++) {
+			buckets[i] = new TxObject<Node>(null);
+		}
+		return buckets;
+	}
+
+	private static int spread(int hashCode) {
+		return hashCode ^ (hashCode >>> 16);
+	}
+
+	/**
+	 * Get the value of a key inside the transaction
+	 *
+	 * @param key
+	 * @return its value, or null if the key is absent
+	 * @throws NoActiveTransactionException
+	 * @throws TransactionAbortedException
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(Object key) throws NoActiveTransactionException, TransactionAbortedException {
+		int hash = spread(key.hashCode());
+		for (Node node = bucketOf(tables.read(), hash).read(); node != null; node = node.next) {
+			if (node.hash == hash && key.equals(node.key)) {
+				return (V) node.value;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @param key
+	 * @return true if the key is in the map
+	 * @throws NoActiveTransactionException
+	 * @throws TransactionAbortedException
+	 */
+	public boolean containsKey(Object key) throws NoActiveTransactionException, TransactionAbortedException {
+		return get(key) != null;
+	}
+
+	/**
+	 * Map a key to a value inside the transaction
+	 *
+	 * @param key
+	 * @param value
+	 * @return the previous value of the key, or null if it was absent
+	 * @throws NoActiveTransactionException
+	 * @throws TransactionAbortedException
+	 */
+	public V put(K key, V value) throws NoActiveTransactionException, TransactionAbortedException {
+		return put(key, value, true);
+	}
+
+	/**
+	 * Map a key to a value inside the transaction, unless the key is already
+	 * present
+	 *
+	 * @param key
+	 * @param value
+	 * @return the current value of the key, or null if it was absent and is
+	 *         now mapped to the given value
+	 * @throws NoActiveTransactionException
+	 * @throws TransactionAbortedException
+	 */
+	public V putIfAbsent(K key, V value) throws NoActiveTransactionException, TransactionAbortedException {
+		return put(key, value, false);
+	}
+
+	@SuppressWarnings("unchecked")
+	private V put(K key, V value, boolean replace) throws NoActiveTransactionException, TransactionAbortedException {
+		if (value == null) {
+			throw new NullPointerException();
+		}
+		int hash = spread(key.hashCode());
+		Tables current = tables.read();
+		TxObject<Node> bucket = bucketOf(current, hash);
+		Node head = bucket.read();
+		for (Node node = head; node != null; node = node.next) {
+			if (node.hash == hash && key.equals(node.key)) {
+				if (replace) {
+					bucket.write(replace(head, node, new Node(key, value, hash, node.next)));
+					moveSome(current);
+				}
+				return (V) node.value;
+			}
+		}
+		bucket.write(new Node(key, value, hash, head));
+		size.increment();
+		if (current.next != null) {
+			moveSome(current);
+		} else if (size.getTrueValue() >= current.buckets.length - (current.buckets.length >>> 2)) {
+			// The committed size is enough to decide when to grow, and does
+			// not make the transaction depend on every other insertion
+			tables.write(new Tables(current.buckets, newBuckets(current.buckets.length * 2)));
+		}
+		return null;
+	}
+
+	/**
+	 * Remove a key inside the transaction
+	 *
+	 * @param key
+	 * @return its value, or null if it was absent
+	 * @throws NoActiveTransactionException
+	 * @throws TransactionAbortedException
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(Object key) throws NoActiveTransactionException, TransactionAbortedException {
+		int hash = spread(key.hashCode());
+		Tables current = tables.read();
+		TxObject<Node> bucket = bucketOf(current, hash);
+		Node head = bucket.read();
+		for (Node node = head; node != null; node = node.next) {
+			if (node.hash == hash && key.equals(node.key)) {
+				bucket.write(replace(head, node, node.next));
+				size.decrement();
+				moveSome(current);
+				return (V) node.value;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Get the number of keys inside the transaction. This reads every stripe
+	 * of the size counter, so the transaction conflicts with every concurrent
+	 * insertion or removal.
+	 *
+	 * @return number of keys
+	 * @throws NoActiveTransactionException
+	 * @throws TransactionAbortedException
+	 */
+	public int size() throws NoActiveTransactionException, TransactionAbortedException {
+		return (int) size.get();
+	}
+
+	/**
+	 * @return true if the map has no keys, see {@link #size()}
+	 * @throws NoActiveTransactionException
+	 * @throws TransactionAbortedException
+	 */
+	public boolean isEmpty() throws NoActiveTransactionException, TransactionAbortedException {
+		return size() == 0;
+	}
+
+	/**
+	 * Find the bucket that holds a hash, in the new table if its old bucket
+	 * has moved
+	 */
+	private static TxObject<Node> bucketOf(Tables current, int hash)
+			throws NoActiveTransactionException, TransactionAbortedException {
+		TxObject<Node> bucket = current.buckets[hash & (current.buckets.length - 1)];
+		if (current.next != null && bucket.read() == MOVED) {
+			bucket = current.next[hash & (current.next.length - 1)];
+		}
+		return bucket;
+	}
+
+	/**
+	 * Copy a chain, replacing one of its nodes
+	 *
+	 * @param head
+	 * @param target
+	 *            node to replace
+	 * @param replacement
+	 *            what follows the copy of the nodes before the target
+	 * @return the new head
+	 */
+	private static Node replace(Node head, Node target, Node replacement) {
+		if (head == target) {
+			return replacement;
+		}
+		return new Node(head.key, head.value, head.hash, replace(head.next, target, replacement));
+	}
+
+	/**
+	 * Move the next few old buckets of a resize under way, and finish the
+	 * resize once every bucket has been taken
+	 */
+	private void moveSome(Tables current) throws NoActiveTransactionException, TransactionAbortedException {
+		if (current.next == null) {
+			return;
+		}
+		for (int k = 0; k < MOVES_PER_UPDATE; k++) {
+			int index = current.moveCursor.getAndIncrement();
+			if (index >= current.buckets.length) {
+				for (int i = 0; i < current.buckets.length; i++) {
+					move(current, i);
+				}
+				tables.write(new Tables(current.next, null));
+				return;
+			}
+			move(current, index);
+		}
+	}
+
+	/**
+	 * Split an old bucket between its two buckets in the new table. Nothing
+	 * is written to those before the old bucket is marked as moved.
+	 */
+	private static void move(Tables current, int index)
+			throws NoActiveTransactionException, TransactionAbortedException {
+		TxObject<Node> bucket = current.buckets[index];
+		Node head = bucket.read();
+		if (head == MOVED) {
+			return;
+		}
+		int oldCapacity = current.buckets.length;
+		Node low = null;
+		Node high = null;
+		for (Node node = head; node != null; node = node.next) {
+			if ((node.hash & oldCapacity) == 0) {
+				low = new Node(node.key, node.value, node.hash, low);
+			} else {
+				high = new Node(node.key, node.value, node.hash, high);
+			}
+		}
+		current.next[index].write(low);
+		current.next[index + oldCapacity].write(high);
+		bucket.write(MOVED);
+	}
+}
@@ -1,7 +1,9 @@
 package carlstm;
 
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This class holds transactional state for a single thread. You should use
@@ -9,187 +11,1173 @@ import java.util.LinkedList;
  * class is only used within the STM implementation, so it and its members are
  * set to package (default) visibility.
  */
-class TxInfo {
+class TxInfo implements TxContext, ContentionManager.Contender {
 	/**
 	 * Start a transaction by initializing any necessary state. This method
 	 * should throw {@link TransactionAlreadyActiveException} if a transaction
 	 * is already being executed.
 	 */
 	private boolean currentTxActive;
-	private HashMap<TxObject<?>, Object> initialValues;
-	private HashMap<TxObject<?>, Object> currentValues;
-	private LinkedList<TxObject<?>> lockedTxObjects;
+	// Set when the transaction was declared read-only through
+	// CarlSTM.executeReadOnly; such a transaction keeps no read or write set
+	private boolean readOnly;
+	// Set for Isolation.SNAPSHOT: reads are not validated at commit
+	private boolean snapshotIsolation;
+	// Version of the global clock sampled when the transaction started
+	private long readVersion;
+	// Slot announcing the snapshot of a read-only transaction to committers,
+	// see ActiveSnapshots; -1 if none
+	private int snapshotSlot = -1;
+	// Every TxObject written by the transaction, with the lock word it had
+	// when first accessed and the value the transaction sees for it; and
+	// every TxObject only read, with the lock word it had when read. Reused by
+	// every transaction of this thread.
+	private final TxAccessSet accessSet = new TxAccessSet();
+	private final TxReadLog readLog = new TxReadLog();
+	// Value of the last TxObject sampled by sample()
+	private Object sampledValue;
+	private long sampledBits;
+	// Set for Locking.EAGER: every TxObject is locked when first written
+	private boolean eagerLocking;
+	// Set for a transaction run by CarlSTM.executeIrrevocable, which never
+	// aborts; read by other threads trying to kill it
+	private volatile boolean irrevocable;
+	// Set while this thread commits writes, so that an irrevocable
+	// transaction can wait for the commit to finish, see Irrevocability
+	volatile boolean inCommit;
+	// Write set entries still to be locked at commit, as the cell id in the
+	// high half and the entry index in the low half, so that sorting puts
+	// them in lock order
+	private long[] lockOrder = new long[16];
 	private static final boolean DEBUG = false;
-	// Variable indicating if another thread is holding the writeLock, if
-	// shouldWait is true, then exponential backoff should be used
-	public boolean shouldWait;
-	// Count the numbers of commit and aborts
-	public int commitCount;
-	public int abortCount;
-	
-	public TxInfo() {
-		commitCount=0;
-		abortCount=0;
+	// Status of the current attempt: a serial number that changes with every
+	// attempt, shifted left by two, plus one of the states below. Other
+	// threads CAS it to KILLED to abort this transaction on behalf of their
+	// contention manager; the serial number keeps a stale request from
+	// killing a later attempt.
+	private final AtomicLong status = new AtomicLong(INACTIVE);
+	private static final long ACTIVE = 0;
+	// Past the point where the transaction can be aborted by others
+	private static final long COMMITTING = 1;
+	private static final long KILLED = 2;
+	private static final long INACTIVE = 3;
+	private static final long STATE_MASK = 3;
+	// Read set saved by a transaction blocked in CarlSTM.retry()
+	private TxCell[] watchCells = new TxCell[16];
+	private long[] watchVersions = new long[16];
+	private int watchCount;
+	// Spreads the threads over the stripes of a TxCounter
+	final int stripeHint = ThreadLocalRandom.current().nextInt();
+	// Every TxInfo by slot, so that a lock word can name its owner. Weak, so
+	// that the TxInfo of a finished thread can be collected and its slot
+	// reused; a finished thread holds no locks.
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static volatile WeakReference<TxInfo>[] registry = new WeakReference[16];
+	// Statistics of the TxInfo in each registry slot, kept after the TxInfo
+	// is collected until the slot is reused; then added to retired
+	private static ThreadStatistics[] statisticsBySlot = new ThreadStatistics[16];
+	private static final ThreadStatistics retired = new ThreadStatistics();
+	// Statistics of this thread's transactions, see StmStatistics. Set before
+	// the TxInfo registers.
+	final ThreadStatistics statistics = new ThreadStatistics();
+	// Lock word of the TxCells this transaction locks
+	private final long lockWord = ((long) register(this) << 1) | 1L;
+	// Contention management state, kept across the attempts of one execute
+	private ContentionManager contentionManager;
+	private int attempt;
+	private long startTime;
+	// Start of the current attempt, from System.nanoTime()
+	private long attemptStart;
+	private long karma;
+	// Why the current attempt is aborting and the object the conflict was
+	// detected on, if known; recorded by abort()
+	private AbortCause abortCause;
+	private TxCell abortCell;
+	// Object another transaction wanted when it killed this one
+	private volatile TxCell killedOver;
+	// Set when a nested transaction aborted: the attempt must not commit even
+	// if the exception was caught
+	private boolean doomed;
+
+	/**
+	 * Give a TxInfo a slot in the registry
+	 * 
+	 * @param txInfo
+	 * @return its slot
+	 */
+	private static synchronized int register(TxInfo txInfo) {
+		WeakReference<TxInfo>[] slots = registry;
+		int slot = 0;
+		while (slot < slots.length && slots[slot] != null && slots[slot].get() != null) {
+			slot++;
+		}
+		if (slot == slots.length) {
+			slots = Arrays.copyOf(slots, slots.length * 2);
+			statisticsBySlot = Arrays.copyOf(statisticsBySlot, slots.length);
+		}
+		if (statisticsBySlot[slot] != null) {
+			statisticsBySlot[slot].addTo(retired);
+		}
+		slots[slot] = new WeakReference<TxInfo>(txInfo);
+		statisticsBySlot[slot] = txInfo.statistics;
+		registry = slots;
+		return slot;
+	}
+
+	/**
+	 * Add up the statistics of every TxInfo created so far
+	 * 
+	 * @return their sum
+	 */
+	static synchronized StmStatistics collectStatistics() {
+		ThreadStatistics total = new ThreadStatistics();
+		retired.addTo(total);
+		for (ThreadStatistics statistics : statisticsBySlot) {
+			if (statistics != null) {
+				statistics.addTo(total);
+			}
+		}
+		return new StmStatistics(total);
+	}
+
+	/**
+	 * @param lockWord
+	 *            lock word of a locked TxCell
+	 * @return the transaction holding the lock, or null if it cannot be found
+	 */
+	static TxInfo ownerOf(long lockWord) {
+		WeakReference<TxInfo>[] slots = registry;
+		int slot = (int) (lockWord >>> 1);
+		WeakReference<TxInfo> owner = slot < slots.length ? slots[slot] : null;
+		return owner == null ? null : owner.get();
+	}
+
+	/**
+	 * Wait until no TxInfo other than the given one is committing writes
+	 * 
+	 * @param self
+	 */
+	static void awaitOtherCommits(TxInfo self) {
+		WeakReference<TxInfo>[] slots = registry;
+		for (int i = 0; i < slots.length; i++) {
+			TxInfo other = slots[i] == null ? null : slots[i].get();
+			while (other != null && other != self && other.inCommit) {
+				Thread.yield();
+			}
+		}
 	}
 
 	boolean currentTransactionActive() {
 		return currentTxActive;
 	}
 
+	@Override
+	public boolean isReadOnly() {
+		return readOnly;
+	}
+
+	/**
+	 * @return true if the transaction reads a snapshot taken when it began,
+	 *         so that it must not follow values it has only peeked at
+	 */
+	boolean readsSnapshot() {
+		return readOnly || snapshotIsolation;
+	}
+
+	@Override
+	public int getAttempt() {
+		return attempt;
+	}
+
+	@Override
+	public long getStartTime() {
+		return startTime;
+	}
+
+	@Override
+	public long getKarma() {
+		return karma;
+	}
+
+	ContentionManager getContentionManager() {
+		return contentionManager;
+	}
+
 	/**
 	 * Initialize the thread transaction
 	 * 
+	 * @param readOnly
+	 *            true if the transaction promises not to write any TxObject
+	 * @param isolation
+	 *            isolation level of the transaction
+	 * @param locking
+	 *            when the transaction locks the TxObjects it writes
+	 * @param contentionManager
+	 *            manager resolving the conflicts of this transaction
+	 * @param firstAttempt
+	 *            true if this is not a retry of an aborted attempt, which
+	 *            resets the contention management state
 	 * @throws TransactionAlreadyActiveException
 	 */
-	void start() throws TransactionAlreadyActiveException {
+	void start(boolean readOnly, Isolation isolation, Locking locking, ContentionManager contentionManager,
+			boolean firstAttempt) throws TransactionAlreadyActiveException {
+		start(readOnly, isolation, locking, contentionManager, firstAttempt, false);
+	}
+
+	private void start(boolean readOnly, Isolation isolation, Locking locking, ContentionManager contentionManager,
+			boolean firstAttempt, boolean irrevocable) throws TransactionAlreadyActiveException {
 		if (currentTxActive) {
 			throw new TransactionAlreadyActiveException();
 		}
-		currentValues = new HashMap<>();
-		initialValues = new HashMap<>();
-		lockedTxObjects = new LinkedList<>();
+		// Set before the attempt becomes active, so that a thread that sees
+		// the new status also sees that it cannot be killed
+		this.irrevocable = irrevocable;
+		doomed = false;
+		attemptStart = System.nanoTime();
+		if (firstAttempt) {
+			attempt = 0;
+			startTime = attemptStart;
+			karma = 0;
+		}
+		this.contentionManager = contentionManager;
+		status.set(nextSerial() | ACTIVE);
+		this.readOnly = readOnly;
+		snapshotIsolation = isolation == Isolation.SNAPSHOT;
+		eagerLocking = locking == Locking.EAGER;
+		readVersion = VersionClock.read();
+		if (readOnly || snapshotIsolation) {
+			snapshotSlot = ActiveSnapshots.register(readVersion, stripeHint);
+		}
 		currentTxActive = true;
-		shouldWait = false;
+		TransactionBeginEvent event = new TransactionBeginEvent();
+		if (event.shouldCommit()) {
+			event.attempt = attempt;
+			event.readOnly = readOnly;
+			event.commit();
+		}
 		if (DEBUG) {
 			System.out.println(Thread.currentThread().getName() + " TxInfo started");
 		}
 	}
 
 	/**
-	 * Try to commit a completed transaction. This method should update any
-	 * written TxObjects, acquiring locks on those objects as needed.
+	 * Initialize an irrevocable transaction. The caller holds the turn in
+	 * {@link Irrevocability}, so no other transaction commits until this one
+	 * ends: its reads stay valid, it never waits for a commit, and it settles
+	 * conflicts with eagerly locked objects by killing their owners.
+	 * 
+	 * @param readOnly
+	 *            true if the transaction promises not to write any TxObject
+	 * @param contentionManager
+	 *            manager consulted by others about conflicts with this
+	 *            transaction
+	 * @param firstAttempt
+	 *            false if the transaction aborted before, see {@link #start}
+	 * @throws TransactionAlreadyActiveException
+	 */
+	void startIrrevocable(boolean readOnly, ContentionManager contentionManager, boolean firstAttempt)
+			throws TransactionAlreadyActiveException {
+		start(readOnly, Isolation.SERIALIZABLE, Locking.LAZY, contentionManager, firstAttempt, true);
+	}
+
+
+	/**
+	 * Try to commit a completed transaction. Written TxObjects not already
+	 * locked by eager locking are locked in id order with a single CAS each,
+	 * which also checks that they still carry the version read by this
+	 * transaction. The global clock is then advanced, the rest of
+	 * the read set is validated by version number, and the buffered values are
+	 * published under the new version.
+	 * 
+	 * A transaction that wrote nothing takes no locks, does not advance the
+	 * clock and validates nothing: every read was already checked against the
+	 * transaction's snapshot, so its reads are consistent as of that snapshot.
 	 * 
 	 * @return true if the commit succeeds, false if the transaction fails
 	 *         unmanageably
 	 * @throws TransactionAbortedException
 	 *             if the commit aborts
 	 */
-	@SuppressWarnings({})
 	boolean commit() throws TransactionAbortedException {
+		if (doomed) {
+			// The cause was recorded when the nested transaction aborted
+			throw new TransactionAbortedException();
+		}
+		long commitStart = System.nanoTime();
+		if (accessSet.writeCount() == 0) {
+			// Objects locked eagerly may no longer be written after a nested
+			// rollback
+			unlockAll();
+			recordCommit(commitStart);
+			accessSet.clear();
+			readLog.clear();
+			finish();
+			return true;
+		}
 		try {
-			for (TxObject<?> txobject : initialValues.keySet()) {
-				// Try readlock, if unable to readlock, then use exponential
-				// backoff
-				if (!txobject.tryLockRead()) {
-					shouldWait = true;
-					throw new TransactionAbortedException();
-				} else {
-					// locked
-					lockedTxObjects.add(txobject);
-				}
+			enterCommit();
+			lockWriteSet();
+			// From here on the transaction can no longer be killed
+			long activeStatus = status.get();
+			if ((activeStatus & STATE_MASK) != ACTIVE
+					|| !status.compareAndSet(activeStatus, activeStatus | COMMITTING)) {
+				throw conflict(AbortCause.KILLED, killedOver);
+			}
+			long writeVersion = VersionClock.tick();
+			// If no other transaction committed since we started, nothing we
+			// read can have changed. Under snapshot isolation only the write
+			// set matters, and it was checked when it was locked.
+			if (writeVersion != readVersion + 1 && !snapshotIsolation) {
+				validateReadSet();
 			}
-			// Check if the object value matches the current value registered,
-			// if so, release the readlock, if not, aquires the writelock and
-			// overwrite it
-			for (TxObject<?> txobject : initialValues.keySet()) {
-				if (txobject.getTrueTxObjectValue() != initialValues.get(txobject)) {
-					// inconsistent state
-					throw new TransactionAbortedException();
-				} else {
-					if (txobject.getTrueTxObjectValue() == currentValues.get(txobject)) {
-						txobject.releaseRead();
+			long newVersionLock = TxCell.versionLockOf(writeVersion);
+			for (int i = 0; i < accessSet.size(); i++) {
+				if (accessSet.isWritten(i)) {
+					TxCell txobject = accessSet.key(i);
+					if (accessSet.isAdditive(i)) {
+						txobject.publish(null, txobject.bitsValue() + accessSet.bits(i), accessSet.lockedVersion(i));
 					} else {
-						try {
-							txobject.releaseRead();
-							txobject.lockWrite();
-							if (txobject.getTrueTxObjectValue() != initialValues.get(txobject)) {
-								// inconsistent state
-								throw new TransactionAbortedException();
-							} else {
-								txobject.setValue(currentValues.get(txobject));
-							}
-						} finally {
-							txobject.releaseWrite();
-						}
+						txobject.publish(accessSet.value(i), accessSet.bits(i), accessSet.lockedVersion(i));
 					}
+					txobject.unlock(newVersionLock);
+					accessSet.setUnlocked(i);
 				}
 			}
-			commitCount+=1;
-			currentTxActive = false;
+			// Locked early but no longer written after a nested rollback
+			unlockAll();
+			recordCommit(commitStart);
+			accessSet.clear();
+			readLog.clear();
+			finish();
+			CommitNotifier.signalCommit();
 			if (DEBUG) {
 				System.out.println(Thread.currentThread().getName() + " transaction committed");
 			}
 		} finally {
+			inCommit = false;
 			unlockAll();
 		}
 		return true;
 	}
 
 	/**
-	 * Unlock all the readLocks acquired in this thread
+	 * Announce that this transaction is committing writes, first waiting for
+	 * a running irrevocable transaction to end. A transaction holding eager
+	 * locks aborts instead of waiting: the irrevocable transaction may be
+	 * waiting for a committer that is itself waiting for one of those locks.
+	 * 
+	 * @throws TransactionAbortedException
+	 *             if the transaction holds locks or is killed while it waits
+	 */
+	private void enterCommit() throws TransactionAbortedException {
+		while (true) {
+			inCommit = true;
+			if (!Irrevocability.heldByOther(this)) {
+				return;
+			}
+			inCommit = false;
+			if (holdsLocks()) {
+				throw conflict(AbortCause.KILLED, null);
+			}
+			// Killed by the irrevocable transaction if it needs an object
+			// this one locked eagerly
+			checkNotKilled();
+			Irrevocability.awaitEnd();
+		}
+	}
+
+	/**
+	 * @return true if the transaction has locked any TxObject
+	 */
+	private boolean holdsLocks() {
+		for (int i = 0; i < accessSet.size(); i++) {
+			if (accessSet.isLocked(i)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Lock every written TxObject not locked yet, in increasing id order. All
+	 * committers lock in the same global order, so a committer waiting for a
+	 * lock never holds one its owner is waiting for. Objects locked eagerly
+	 * were locked in program order instead; a wait involving them is broken
+	 * by the contention manager.
+	 * 
+	 * @throws TransactionAbortedException
+	 *             if an object cannot be locked
+	 */
+	private void lockWriteSet() throws TransactionAbortedException {
+		int count = 0;
+		for (int i = 0; i < accessSet.size(); i++) {
+			if (accessSet.isWritten(i) && !accessSet.isLocked(i)) {
+				if (count == lockOrder.length) {
+					lockOrder = Arrays.copyOf(lockOrder, count * 2);
+				}
+				lockOrder[count++] = (Integer.toUnsignedLong(accessSet.key(i).id) << 32) | i;
+			}
+		}
+		if (count > 1) {
+			Arrays.sort(lockOrder, 0, count);
+		}
+		for (int k = 0; k < count; k++) {
+			lockEntry((int) lockOrder[k]);
+		}
+	}
+
+	/**
+	 * Lock the TxObject of an entry for commit, checking that it still
+	 * carries the version the transaction read. Additive entries were never
+	 * read, so any version will do.
+	 * 
+	 * @param entry
+	 * @throws TransactionAbortedException
+	 *             if the object was committed by another transaction since it
+	 *             was read, or the transaction gives up waiting for its lock
+	 */
+	private void lockEntry(int entry) throws TransactionAbortedException {
+		TxCell txobject = accessSet.key(entry);
+		if (accessSet.isAdditive(entry)) {
+			accessSet.setLocked(entry, lockAnyVersion(txobject));
+		} else {
+			long version = accessSet.version(entry);
+			while (!txobject.tryLock(version, lockWord)) {
+				if (!TxCell.isLocked(txobject.getVersionLock())) {
+					// Committed by another transaction since we read it
+					throw conflict(AbortCause.WRITE_WRITE_CONFLICT, txobject);
+				}
+				// Another transaction holds this object
+				awaitRelease(txobject);
+			}
+			accessSet.setLocked(entry, version);
+		}
+	}
+
+	/**
+	 * Lock a cell for commit whatever its version, waiting for other
+	 * committers to release it
+	 * 
+	 * @param txobject
+	 * @return the unlocked lock word the cell had when it was locked
+	 * @throws TransactionAbortedException
+	 *             if the transaction gives up waiting or is killed
+	 */
+	private long lockAnyVersion(TxCell txobject) throws TransactionAbortedException {
+		while (true) {
+			long version = txobject.getVersionLock();
+			if (TxCell.isLocked(version)) {
+				awaitRelease(txobject);
+			} else if (txobject.tryLock(version, lockWord)) {
+				return version;
+			}
+		}
+	}
+
+	/**
+	 * Mark the current attempt as successfully committed
+	 */
+	private void finish() {
+		irrevocable = false;
+		releaseSnapshot();
+		currentTxActive = false;
+		status.set(nextSerial() | INACTIVE);
+	}
+
+	/**
+	 * Withdraw the snapshot of a read-only transaction from
+	 * {@link ActiveSnapshots}
+	 */
+	private void releaseSnapshot() {
+		if (snapshotSlot >= 0) {
+			ActiveSnapshots.release(snapshotSlot);
+			snapshotSlot = -1;
+		}
+	}
+
+	/**
+	 * @return serial number for the next status word, with the state bits
+	 *         cleared
+	 */
+	private long nextSerial() {
+		return (status.get() & ~STATE_MASK) + STATE_MASK + 1;
+	}
+
+	/**
+	 * Ask this transaction to abort on behalf of a contention manager. The
+	 * transaction notices at its next read, conflict or commit. An
+	 * irrevocable transaction ignores the request, and so does any attempt
+	 * other than the one the killer saw.
+	 * 
+	 * @param over
+	 *            the object the killer is waiting for
+	 * @param seenStatus
+	 *            status of this transaction when the killer found the
+	 *            conflict, see {@link #getStatus()}
+	 */
+	void kill(TxCell over, long seenStatus) {
+		if ((seenStatus & STATE_MASK) != ACTIVE || irrevocable || status.get() != seenStatus) {
+			return;
+		}
+		killedOver = over;
+		status.compareAndSet(seenStatus, seenStatus | KILLED);
+	}
+
+	/**
+	 * @return status word of the current attempt, to pass to {@link #kill}
+	 */
+	long getStatus() {
+		return status.get();
+	}
+
+	/**
+	 * @throws TransactionAbortedException
+	 *             if another transaction killed this one
+	 */
+	private void checkNotKilled() throws TransactionAbortedException {
+		if ((status.get() & STATE_MASK) == KILLED) {
+			throw conflict(AbortCause.KILLED, killedOver);
+		}
+	}
+
+	/**
+	 * Wait until a TxObject locked by another transaction is released, asking
+	 * the contention manager after each wait whether to keep waiting, abort
+	 * this transaction or abort the owner
+	 * 
+	 * @param txobject
+	 *            the locked object
+	 * @throws TransactionAbortedException
+	 *             if this transaction gives up or is killed while waiting
+	 */
+	private void awaitRelease(TxCell txobject) throws TransactionAbortedException {
+		int waits = 0;
+		for (long lock = txobject.getVersionLock(); TxCell.isLocked(lock); lock = txobject.getVersionLock()) {
+			checkNotKilled();
+			TxInfo owner = ownerOf(lock);
+			if (owner != null && owner != this) {
+				long ownerStatus = owner.getStatus();
+				if (txobject.getVersionLock() != lock) {
+					// Released meanwhile, so the status may be of a later
+					// attempt
+					continue;
+				}
+				ContentionManager.Resolution resolution = irrevocable ? ContentionManager.Resolution.ABORT_OTHER
+						: contentionManager.resolveConflict(this, owner, waits);
+				switch (resolution) {
+				case ABORT_SELF:
+					throw conflict(AbortCause.LOCK_BUSY, txobject);
+				case ABORT_OTHER:
+					owner.kill(txobject, ownerStatus);
+					break;
+				case WAIT:
+					break;
+				}
+			}
+			if (waits < 16) {
+				Thread.onSpinWait();
+			} else {
+				Thread.yield();
+			}
+			waits++;
+		}
+	}
+
+	/**
+	 * Check that every registered TxObject still carries the version seen when
+	 * it was first read. Objects locked by this transaction were checked
+	 * against the version in the write set when they were locked, so a read of
+	 * one of them only needs to match that version.
+	 * 
+	 * @throws TransactionAbortedException
+	 *             if any of them changed or is being committed
+	 */
+	private void validateReadSet() throws TransactionAbortedException {
+		for (int i = 0; i < readLog.size(); i++) {
+			TxCell txobject = readLog.cell(i);
+			long lock = txobject.getVersionLock();
+			if (lock != readLog.version(i)
+					&& (lock != lockWord || accessSet.lockedVersion(accessSet.indexOf(txobject)) != readLog.version(i))) {
+				// inconsistent state
+				throw conflict(AbortCause.READ_VALIDATION, txobject);
+			}
+		}
+		for (int i = 0; i < accessSet.size(); i++) {
+			if (accessSet.isAdditive(i) || accessSet.isLocked(i)) {
+				continue;
+			}
+			if (accessSet.key(i).getVersionLock() != accessSet.version(i)) {
+				// inconsistent state
+				throw conflict(AbortCause.READ_VALIDATION, accessSet.key(i));
+			}
+		}
+	}
+
+	/**
+	 * Release the locks still held by this thread, restoring the versions the
+	 * objects had before they were locked
 	 */
 	private void unlockAll() {
-		for (TxObject<?> txobject : lockedTxObjects) {
-			txobject.releaseRead();
+		for (int i = 0; i < accessSet.size(); i++) {
+			if (accessSet.isLocked(i)) {
+				accessSet.key(i).unlock(accessSet.lockedVersion(i));
+				accessSet.setUnlocked(i);
+			}
 		}
-		lockedTxObjects.clear();
 	}
 
 	/**
 	 * This method cleans up any transactional state if a transaction aborts.
-	 * Also unlock all TxObjects that have been readlock'ed (and maybe already
-	 * unlocked
+	 * Also unlock all TxObjects that have been locked for commit
 	 */
 	void abort() {
-		abortCount+=1;
-		unlockAll();
-		currentTxActive = false;
-		currentValues.clear();
-		initialValues.clear();
+		AbortCause cause = abortCause == null ? AbortCause.OTHER : abortCause;
+		statistics.aborts[cause.ordinal()]++;
+		TransactionAbortEvent event = new TransactionAbortEvent();
+		if (event.shouldCommit()) {
+			event.attempt = attempt;
+			event.readSetSize = readLog.size() + accessSet.size();
+			event.writeSetSize = accessSet.writeCount();
+			event.attemptDuration = System.nanoTime() - attemptStart;
+			event.cause = cause.name();
+			event.conflictObject = abortCell == null ? null : abortCell.describe();
+			event.commit();
+		}
+		if (abortCell != null && ConflictProfiler.isRunning()) {
+			ConflictProfiler.sample(abortCell, cause);
+		}
+		abortCause = null;
+		abortCell = null;
+		attempt+=1;
+		rollback();
 		if (DEBUG) {
 			System.out.println(Thread.currentThread().getName() + " transaction aborted");
 		}
 	}
 
-	@SuppressWarnings("rawtypes")
 	/**
-	 * Check if a TxObject object is registered with the thread TxInfo
+	 * Remember why the current attempt aborts
+	 * 
+	 * @param cause
+	 * @param cell
+	 *            object the conflict was detected on, or null if unknown
+	 * @return the exception to throw
+	 */
+	private TransactionAbortedException conflict(AbortCause cause, TxCell cell) {
+		abortCause = cause;
+		abortCell = cell;
+		return new TransactionAbortedException();
+	}
+
+	/**
+	 * Record the statistics and Flight Recorder event of a transaction about
+	 * to commit
+	 * 
+	 * @param commitStart
+	 *            time the commit started, from {@link System#nanoTime()}
+	 */
+	private void recordCommit(long commitStart) {
+		long now = System.nanoTime();
+		statistics.commits++;
+		ThreadStatistics.record(statistics.attempts, attempt + 1);
+		ThreadStatistics.record(statistics.readSetSizes, readLog.size() + accessSet.size());
+		ThreadStatistics.record(statistics.writeSetSizes, accessSet.writeCount());
+		ThreadStatistics.record(statistics.commitNanos, now - commitStart);
+		ThreadStatistics.record(statistics.transactionNanos, now - startTime);
+		TransactionCommitEvent event = new TransactionCommitEvent();
+		if (event.shouldCommit()) {
+			event.attempt = attempt;
+			event.readSetSize = readLog.size() + accessSet.size();
+			event.writeSetSize = accessSet.writeCount();
+			event.attemptDuration = now - attemptStart;
+			event.commitDuration = now - commitStart;
+			event.commit();
+		}
+	}
+
+	/**
+	 * Record an attempt run irrevocably after too many aborts
+	 * 
+	 * @param nanos
+	 *            time it took, including the wait for its turn
+	 */
+	void recordFallback(long nanos) {
+		statistics.fallbacks++;
+		statistics.fallbackNanos += nanos;
+	}
+
+	/**
+	 * Discard the current attempt without publishing anything
+	 */
+	private void rollback() {
+		status.set(nextSerial() | INACTIVE);
+		irrevocable = false;
+		releaseSnapshot();
+		unlockAll();
+		currentTxActive = false;
+		accessSet.clear();
+		readLog.clear();
+	}
+
+	/**
+	 * Discard a transaction that called {@link CarlSTM#retry()} and block
+	 * until another transaction commits a change to something it read. A
+	 * declared read-only transaction keeps no read set, so it waits for any
+	 * commit instead.
+	 * 
+	 * @throws InterruptedException
+	 * @throws IllegalStateException
+	 *             if the transaction read nothing, so that it could never be
+	 *             woken up
+	 */
+	void awaitRetry() throws InterruptedException {
+		watchCount = 0;
+		for (int i = 0; i < readLog.size(); i++) {
+			watch(readLog.cell(i), readLog.version(i));
+		}
+		for (int i = 0; i < accessSet.size(); i++) {
+			if (!accessSet.isAdditive(i)) {
+				watch(accessSet.key(i), accessSet.version(i));
+			}
+		}
+		long snapshot = readVersion;
+		boolean watchClock = readOnly;
+		rollback();
+		if (!watchClock && watchCount == 0) {
+			throw new IllegalStateException("retry() in a transaction that has read nothing");
+		}
+		try {
+			if (watchClock) {
+				CommitNotifier.await(() -> VersionClock.read() != snapshot);
+			} else {
+				CommitNotifier.await(this::watchedCellChanged);
+			}
+		} finally {
+			for (int i = 0; i < watchCount; i++) {
+				watchCells[i] = null;
+			}
+			watchCount = 0;
+		}
+	}
+
+	/**
+	 * Add a cell to the watch set of a transaction about to block in retry
+	 * 
+	 * @param cell
+	 * @param version
+	 *            lock word of the cell when it was read
+	 */
+	private void watch(TxCell cell, long version) {
+		if (watchCount == watchCells.length) {
+			watchCells = Arrays.copyOf(watchCells, watchCount * 2);
+			watchVersions = Arrays.copyOf(watchVersions, watchCount * 2);
+		}
+		watchCells[watchCount] = cell;
+		watchVersions[watchCount] = version;
+		watchCount++;
+	}
+
+	/**
+	 * @return true if a cell read by a transaction blocked in retry has been
+	 *         committed since it was read
+	 */
+	private boolean watchedCellChanged() {
+		for (int i = 0; i < watchCount; i++) {
+			if (watchCells[i].getVersionLock() != watchVersions[i]) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Make the current attempt abort at commit, after a nested transaction
+	 * aborted
+	 */
+	void doom() {
+		doomed = true;
+	}
+
+	/**
+	 * Start a nested scope whose writes can be discarded on their own, see
+	 * {@link TxAccessSet#beginScope()}
+	 */
+	void beginNested() {
+		accessSet.beginScope();
+	}
+
+	/**
+	 * Merge the innermost nested scope into the enclosing one
+	 */
+	void commitNested() {
+		accessSet.commitScope();
+	}
+
+	/**
+	 * Discard the writes of the innermost nested scope, keeping its reads
+	 */
+	void rollbackNested() {
+		accessSet.rollbackScope();
+	}
+
+	/**
+	 * Get the value of a TxObject as seen by the transaction: the value
+	 * buffered by an earlier write, or else the shared value, which is
+	 * recorded in the read log
 	 * 
 	 * @param txobject
-	 * @return registered
+	 * @return value of the object
+	 * @throws TransactionAbortedException
+	 *             if the object cannot be read consistently
 	 */
-	boolean hasTxObject(TxObject txobject) {
-		if (initialValues.containsKey(txobject)) {
-			return true;
-		} else {
-			return false;
+	Object readTxObject(TxCell txobject) throws TransactionAbortedException {
+		int entry = writtenEntryOf(txobject);
+		if (entry >= 0) {
+			return accessSet.value(entry);
 		}
+		readLog.add(txobject, sample(txobject, -1));
+		Object value = sampledValue;
+		sampledValue = null;
+		return value;
 	}
 
-	@SuppressWarnings("rawtypes")
 	/**
-	 * Register a TxObject with the TxInfo
+	 * Get the value of a TxObject as seen by the transaction without adding
+	 * it to the read set: the transaction's own value for it if it has one,
+	 * otherwise the latest committed value, which may be newer than the
+	 * transaction's snapshot
 	 * 
 	 * @param txobject
+	 * @return value of the object
 	 */
-	void addTxObject(TxObject txobject) {
-		initialValues.put(txobject, txobject.value);
-		currentValues.put(txobject, txobject.value);
-		if (DEBUG) {
-			System.out.println(Thread.currentThread().getName() + " Txobject added to TxInfo");
+	Object peekTxObject(TxCell txobject) {
+		int entry = accessSet.indexOf(txobject);
+		return entry >= 0 ? accessSet.value(entry) : txobject.refValue();
+	}
+
+	/**
+	 * Get the value of a primitive cell as seen by the transaction, as raw
+	 * bits
+	 * 
+	 * @param txobject
+	 * @return bits of the value of the cell
+	 * @throws TransactionAbortedException
+	 *             if the cell cannot be read consistently
+	 */
+	long readTxBits(TxCell txobject) throws TransactionAbortedException {
+		int entry = writtenEntryOf(txobject);
+		if (entry >= 0) {
+			return accessSet.bits(entry);
 		}
+		readLog.add(txobject, sample(txobject, -1));
+		sampledValue = null;
+		return sampledBits;
+	}
+
+	/**
+	 * Find the write set entry of a TxObject, folding the shared value into
+	 * an additive entry
+	 * 
+	 * @param txobject
+	 * @return index of its entry in the access set, or -1 if the transaction
+	 *         has not written it
+	 * @throws TransactionAbortedException
+	 *             if the object cannot be read consistently
+	 */
+	private int writtenEntryOf(TxCell txobject) throws TransactionAbortedException {
+		int entry = accessSet.indexOf(txobject);
+		if (entry >= 0 && accessSet.isAdditive(entry)) {
+			entry = addTxObject(txobject, entry);
+		}
+		return entry;
 	}
 
-	@SuppressWarnings("rawtypes")
 	/**
 	 * Lazy buffer the changes made to a TxObject
 	 * 
 	 * @param txobject
 	 * @param value
 	 * @throws TransactionAbortedException
+	 *             if the object cannot be read consistently
 	 */
-	void editTxObject(TxObject txobject, Object value) {
-		currentValues.put(txobject, value);
+	void writeTxObject(TxCell txobject, Object value) throws TransactionAbortedException {
+		accessSet.write(writableEntryOf(txobject), value);
 		if (DEBUG) {
 			System.out.println(Thread.currentThread().getName() + " Txobject value updated to " + value);
 		}
 	}
 
-	@SuppressWarnings("rawtypes")
-	Object readTxObjectCurrentValue(TxObject txobject) {
+	/**
+	 * Lazy buffer the changes made to a primitive cell
+	 * 
+	 * @param txobject
+	 * @param bits
+	 *            raw bits of the new value
+	 * @throws TransactionAbortedException
+	 *             if the cell cannot be read consistently
+	 */
+	void writeTxBits(TxCell txobject, long bits) throws TransactionAbortedException {
+		accessSet.writeBits(writableEntryOf(txobject), bits);
+	}
+
+	/**
+	 * Add to the value of a primitive cell without reading it. Unless the
+	 * transaction also reads or writes the cell, the delta is applied at
+	 * commit time to whatever value the cell has then, so transactions that
+	 * only add to the same cell never conflict with each other.
+	 * 
+	 * @param txobject
+	 * @param delta
+	 *            amount to add to the raw bits of the cell's value
+	 */
+	void addTxBits(TxCell txobject, long delta) {
+		int entry = accessSet.indexOf(txobject);
+		if (entry < 0) {
+			accessSet.addAdditive(txobject, delta);
+		} else {
+			accessSet.writeBits(entry, accessSet.bits(entry) + delta);
+		}
+	}
+
+	/**
+	 * Find the access set entry of a TxObject, registering it on first access
+	 * 
+	 * @param txobject
+	 * @return index of its entry in the access set
+	 * @throws TransactionAbortedException
+	 *             if the object cannot be read consistently
+	 */
+	private int entryOf(TxCell txobject) throws TransactionAbortedException {
+		int entry = accessSet.indexOf(txobject);
+		if (entry < 0 || accessSet.isAdditive(entry)) {
+			entry = addTxObject(txobject, entry);
+		}
+		return entry;
+	}
+
+	/**
+	 * Find the access set entry of a TxObject about to be written. With eager
+	 * locking the object is locked now, so that a conflict with another
+	 * writer aborts the transaction here instead of at commit.
+	 * 
+	 * @param txobject
+	 * @return index of its entry in the access set
+	 * @throws TransactionAbortedException
+	 *             if the object cannot be read consistently or locked
+	 */
+	private int writableEntryOf(TxCell txobject) throws TransactionAbortedException {
+		int entry = entryOf(txobject);
+		if ((eagerLocking || txobject.eagerLocking) && !accessSet.isLocked(entry)) {
+			lockEntry(entry);
+		}
+		return entry;
+	}
+
+	/**
+	 * Register a TxObject in the write set, recording its value together with
+	 * the version that value belongs to, see {@link #sample}
+	 * 
+	 * @param txobject
+	 * @param entry
+	 *            additive entry of the object to resolve, or -1 to add a new
+	 *            entry
+	 * @return index of the entry in the access set
+	 * @throws TransactionAbortedException
+	 *             if the object cannot be read consistently
+	 */
+	private int addTxObject(TxCell txobject, int entry) throws TransactionAbortedException {
+		long version = sample(txobject, entry);
+		Object value = sampledValue;
+		sampledValue = null;
 		if (DEBUG) {
-			System.out.println(Thread.currentThread().getName() + " Get updated value for TxObject");
+			System.out.println(Thread.currentThread().getName() + " Txobject added to TxInfo");
+		}
+		if (entry >= 0) {
+			accessSet.resolveAdditive(entry, version, sampledBits + accessSet.bits(entry));
+			return entry;
+		}
+		return accessSet.add(txobject, version, value, sampledBits);
+	}
+
+	/**
+	 * Read the shared value of a TxObject into sampledValue and sampledBits.
+	 * The value is only accepted if it is consistent with everything the
+	 * transaction has read so far, so a doomed transaction aborts here instead
+	 * of running on inconsistent data until commit.
+	 * 
+	 * @param txobject
+	 * @param entry
+	 *            additive entry of the object being resolved, or -1
+	 * @return the version the value belongs to
+	 * @throws TransactionAbortedException
+	 *             if the object was committed after the transaction started
+	 *             and the snapshot cannot be extended
+	 */
+	private long sample(TxCell txobject, int entry) throws TransactionAbortedException {
+		while (true) {
+			checkNotKilled();
+			long lock = txobject.getVersionLock();
+			Object value = txobject.refValue();
+			long bits = txobject.bitsValue();
+			if (TxCell.isLocked(lock) && lock != lockWord) {
+				awaitRelease(txobject);
+				continue;
+			}
+			if (txobject.getVersionLock() != lock) {
+				// Committed while we read it
+				continue;
+			}
+			// Locked by this transaction only if it is an additive entry
+			// locked before a nested rollback turned it back into an additive
+			// one
+			long version = lock == lockWord ? accessSet.lockedVersion(entry) : lock;
+			if (version > TxCell.versionLockOf(readVersion)) {
+				if (snapshotIsolation && entry < 0 && txobject instanceof TxObject) {
+					TxObject.Version old = snapshotVersionOf((TxObject<?>) txobject, version);
+					if (old != null) {
+						// Recorded with the old version, so that writing the
+						// object fails to lock it at commit
+						karma+=1;
+						sampledValue = old.value;
+						sampledBits = 0;
+						return TxCell.versionLockOf(old.version);
+					}
+				}
+				// The object changed after our snapshot was taken. If nothing
+				// we already read has changed, move the snapshot forward and
+				// sample the object again.
+				extendSnapshot();
+				continue;
+			}
+			karma+=1;
+			sampledValue = value;
+			sampledBits = bits;
+			return version;
+		}
+	}
+
+	/**
+	 * Find the value a TxObject had at the snapshot of the transaction among
+	 * the previous values it keeps
+	 * 
+	 * @param txobject
+	 * @param version
+	 *            unlocked lock word the object was just seen with
+	 * @return the previous value, or null if it is not kept or the object
+	 *         changed again in the meantime
+	 */
+	private TxObject.Version snapshotVersionOf(TxObject<?> txobject, long version) {
+		TxObject.Version history = txobject.history;
+		if (txobject.getVersionLock() != version) {
+			return null;
+		}
+		for (; history != null; history = history.older) {
+			if (history.version <= readVersion) {
+				return history;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Move the read version of the transaction to the current clock value,
+	 * provided the read set is still valid at that point
+	 * 
+	 * @throws TransactionAbortedException
+	 *             if something already read has changed
+	 */
+	private void extendSnapshot() throws TransactionAbortedException {
+		long newReadVersion = VersionClock.read();
+		validateReadSet();
+		readVersion = newReadVersion;
+	}
+
+	/**
+	 * Read a TxObject in a declared read-only transaction. Nothing is
+	 * recorded: the value is returned only if the object has not been
+	 * committed since the transaction started, or if the object still keeps
+	 * the value it had then in its history, so all reads belong to the same
+	 * snapshot and the commit has nothing left to check.
+	 * 
+	 * @param txobject
+	 * @return value of the object as of the start of the transaction
+	 * @throws TransactionAbortedException
+	 *             if the object changed after the transaction started and
+	 *             its value at the time is no longer kept
+	 */
+	Object readSnapshotValue(TxObject<?> txobject) throws TransactionAbortedException {
+		while (true) {
+			long version = unlockedVersion(txobject);
+			Object value = txobject.refValue();
+			if (txobject.getVersionLock() != version) {
+				// Committed while we read it
+				continue;
+			}
+			if (version <= TxCell.versionLockOf(readVersion)) {
+				karma+=1;
+				return value;
+			}
+			TxObject.Version old = snapshotVersionOf(txobject, version);
+			if (old != null) {
+				karma+=1;
+				return old.value;
+			}
+			if (txobject.getVersionLock() == version) {
+				// Not committed again in the meantime, so the value is gone
+				throw conflict(AbortCause.READ_VALIDATION, txobject);
+			}
+		}
+	}
+
+	/**
+	 * Read a primitive cell in a declared read-only transaction, see
+	 * {@link #readSnapshotValue}
+	 * 
+	 * @param txobject
+	 * @return bits of the value of the cell as of the start of the transaction
+	 * @throws TransactionAbortedException
+	 *             if the cell changed after the transaction started
+	 */
+	long readSnapshotBits(TxCell txobject) throws TransactionAbortedException {
+		long version = unlockedVersion(txobject);
+		long bits = txobject.bitsValue();
+		checkSnapshotVersion(txobject, version);
+		return bits;
+	}
+
+	/**
+	 * Wait until a TxObject is not locked for commit
+	 * 
+	 * @param txobject
+	 * @return its unlocked lock word
+	 * @throws TransactionAbortedException
+	 *             if the transaction gives up waiting or is killed
+	 */
+	private long unlockedVersion(TxCell txobject) throws TransactionAbortedException {
+		checkNotKilled();
+		long version = txobject.getVersionLock();
+		while (TxCell.isLocked(version)) {
+			awaitRelease(txobject);
+			version = txobject.getVersionLock();
+		}
+		return version;
+	}
+
+	/**
+	 * Check that a value read from a TxObject belongs to the snapshot of the
+	 * transaction
+	 * 
+	 * @param txobject
+	 * @param version
+	 *            lock word seen before the value was read
+	 * @throws TransactionAbortedException
+	 *             if the object changed while it was read or after the
+	 *             transaction started
+	 */
+	private void checkSnapshotVersion(TxCell txobject, long version) throws TransactionAbortedException {
+		if (txobject.getVersionLock() != version || version > TxCell.versionLockOf(readVersion)) {
+			throw conflict(AbortCause.READ_VALIDATION, txobject);
 		}
-		return currentValues.get(txobject);
+		karma+=1;
 	}
 }
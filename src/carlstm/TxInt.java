@@ -0,0 +1,100 @@
+package carlstm;
+
+/**
+ * A TxInt is a transactional cell holding a single int. It behaves like a
+ * {@link TxObject}&lt;Integer&gt;, but the value is stored, buffered and committed as
+ * a primitive, so reading and writing it inside a transaction never boxes.
+ */
+public final class TxInt extends TxCell {
+	volatile int value;
+
+	public TxInt(int value) {
+		this.value = value;
+	}
+
+	/**
+	 * Get the current value of the TxInt inside the transaction
+	 * 
+	 * @return
+	 * @throws NoActiveTransactionException
+	 * @throws TransactionAbortedException
+	 */
+	public int read() throws NoActiveTransactionException, TransactionAbortedException {
+		return read(CarlSTM.TxInfoThreadLocal.get());
+	}
+
+	/**
+	 * Get the current value of the TxInt inside the given transaction, without
+	 * looking the transaction up
+	 * 
+	 * @param context
+	 *            the running transaction, as passed to
+	 *            {@link Transaction#run(TxContext)}
+	 * @return
+	 * @throws NoActiveTransactionException
+	 * @throws TransactionAbortedException
+	 */
+	public int read(TxContext context) throws NoActiveTransactionException, TransactionAbortedException {
+		TxInfo threadTxInfo = activeTxInfo(context);
+		if (threadTxInfo.isReadOnly()) {
+			return (int) threadTxInfo.readSnapshotBits(this);
+		}
+		return (int) threadTxInfo.readTxBits(this);
+	}
+
+	/**
+	 * Change the value of the TxInt inside the transaction, lazy buffer is used
+	 * 
+	 * @param value
+	 * @throws NoActiveTransactionException
+	 * @throws TransactionAbortedException
+	 * @throws ReadOnlyTransactionException
+	 *             if the transaction was started with
+	 *             {@link CarlSTM#executeReadOnly}
+	 */
+	public void write(int value) throws NoActiveTransactionException, TransactionAbortedException {
+		write(CarlSTM.TxInfoThreadLocal.get(), value);
+	}
+
+	/**
+	 * Change the value of the TxInt inside the given transaction, without
+	 * looking the transaction up
+	 * 
+	 * @param context
+	 *            the running transaction, as passed to
+	 *            {@link Transaction#run(TxContext)}
+	 * @param value
+	 * @throws NoActiveTransactionException
+	 * @throws TransactionAbortedException
+	 * @throws ReadOnlyTransactionException
+	 *             if the transaction was started with
+	 *             {@link CarlSTM#executeReadOnly}
+	 */
+	public void write(TxContext context, int value) throws NoActiveTransactionException, TransactionAbortedException {
+		writableTxInfo(context).writeTxBits(this, value);
+	}
+
+	@Override
+	Object refValue() {
+		return null;
+	}
+
+	@Override
+	long bitsValue() {
+		return value;
+	}
+
+	@Override
+	void publish(Object value, long bits, long previousVersion) {
+		this.value = (int) bits;
+	}
+
+	/**
+	 * return the true value field of the TxInt
+	 * 
+	 * @return value
+	 */
+	public int getTrueValue() {
+		return value;
+	}
+}
@@ -0,0 +1,100 @@
+package carlstm;
+
+/**
+ * A TxLong is a transactional cell holding a single long. It behaves like a
+ * {@link TxObject}&lt;Long&gt;, but the value is stored, buffered and committed as
+ * a primitive, so reading and writing it inside a transaction never boxes.
+ */
+public final class TxLong extends TxCell {
+	volatile long value;
+
+	public TxLong(long value) {
+		this.value = value;
+	}
+
+	/**
+	 * Get the current value of the TxLong inside the transaction
+	 * 
+	 * @return
+	 * @throws NoActiveTransactionException
+	 * @throws TransactionAbortedException
+	 */
+	public long read() throws NoActiveTransactionException, TransactionAbortedException {
+		return read(CarlSTM.TxInfoThreadLocal.get());
+	}
+
+	/**
+	 * Get the current value of the TxLong inside the given transaction, without
+	 * looking the transaction up
+	 * 
+	 * @param context
+	 *            the running transaction, as passed to
+	 *            {@link Transaction#run(TxContext)}
+	 * @return
+	 * @throws NoActiveTransactionException
+	 * @throws TransactionAbortedException
+	 */
+	public long read(TxContext context) throws NoActiveTransactionException, TransactionAbortedException {
+		TxInfo threadTxInfo = activeTxInfo(context);
+		if (threadTxInfo.isReadOnly()) {
+			return threadTxInfo.readSnapshotBits(this);
+		}
+		return threadTxInfo.readTxBits(this);
+	}
+
+	/**
+	 * Change the value of the TxLong inside the transaction, lazy buffer is used
+	 * 
+	 * @param value
+	 * @throws NoActiveTransactionException
+	 * @throws TransactionAbortedException
+	 * @throws ReadOnlyTransactionException
+	 *             if the transaction was started with
+	 *             {@link CarlSTM#executeReadOnly}
+	 */
+	public void write(long value) throws NoActiveTransactionException, TransactionAbortedException {
+		write(CarlSTM.TxInfoThreadLocal.get(), value);
+	}
+
+	/**
+	 * Change the value of the TxLong inside the given transaction, without
+	 * looking the transaction up
+	 * 
+	 * @param context
+	 *            the running transaction, as passed to
+	 *            {@link Transaction#run(TxContext)}
+	 * @param value
+	 * @throws NoActiveTransactionException
+	 * @throws TransactionAbortedException
+	 * @throws ReadOnlyTransactionException
+	 *             if the transaction was started with
+	 *             {@link CarlSTM#executeReadOnly}
+	 */
+	public void write(TxContext context, long value) throws NoActiveTransactionException, TransactionAbortedException {
+		writableTxInfo(context).writeTxBits(this, value);
+	}
+
+	@Override
+	Object refValue() {
+		return null;
+	}
+
+	@Override
+	long bitsValue() {
+		return value;
+	}
+
+	@Override
+	void publish(Object value, long bits, long previousVersion) {
+		this.value = bits;
+	}
+
+	/**
+	 * return the true value field of the TxLong
+	 * 
+	 * @return value
+	 */
+	public long getTrueValue() {
+		return value;
+	}
+}
@@ -1,27 +1,63 @@
 package carlstm;
 
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock.ReadLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock.WriteLock;
-
 /**
  * A TxObject is a special kind of object that can be read and written as part
  * of a transaction.
  * 
+ * A TxObject can optionally keep a few of its previous committed values,
+ * tagged with the clock value of the commit that wrote them. Transactions
+ * started with {@link CarlSTM#executeReadOnly} then read the value as of
+ * their snapshot even if the object has been overwritten since, instead of
+ * aborting. Previous values are dropped once no running read-only transaction
+ * can need them any more.
+ * 
  * @param <T>
  *            type of the value stored in this TxObject
  */
-public final class TxObject<T> {
-	T value;
-	private ReentrantReadWriteLock rwLock;
-	private ReadLock readLock;
-	private WriteLock writeLock;
+public final class TxObject<T> extends TxCell {
+	volatile T value;
+	// Previous committed values, newest first; null if the object keeps no
+	// history or no reader needs it
+	volatile Version history;
+	private final int historyDepth;
 
 	public TxObject(T value) {
+		this(value, 0);
+	}
+
+	/**
+	 * Create a TxObject that keeps previous values for read-only transactions
+	 * 
+	 * @param value
+	 *            initial value
+	 * @param historyDepth
+	 *            maximum number of previous values kept; 0 keeps none
+	 */
+	public TxObject(T value, int historyDepth) {
+		if (historyDepth < 0) {
+			throw new IllegalArgumentException("negative history depth " + historyDepth);
+		}
 		this.value = value;
-		this.rwLock = new ReentrantReadWriteLock();
-		this.readLock = rwLock.readLock();
-		this.writeLock = rwLock.writeLock();
+		this.historyDepth = historyDepth;
+		if (historyDepth > 0) {
+			ActiveSnapshots.keepHistory();
+		}
+	}
+
+	/**
+	 * A previous committed value of a TxObject
+	 */
+	static final class Version {
+		final Object value;
+		// Clock value of the commit that wrote it
+		final long version;
+		volatile Version older;
+
+		Version(Object value, long version, Version older) {
+			this.value = value;
+			this.version = version;
+			this.older = older;
+		}
 	}
 
 	/**
@@ -31,92 +67,140 @@ public final class TxObject<T> {
 	 * @throws NoActiveTransactionException
 	 * @throws TransactionAbortedException
 	 */
-	@SuppressWarnings("unchecked")
 	public T read() throws NoActiveTransactionException, TransactionAbortedException {
-		// If threadTxInfo if null, it means that this TxOject is not registered
-		// with the TxInfo yet (i.e. first time read/write)
-		registerTxObject();
-		TxInfo threadTxInfo = CarlSTM.TxInfoThreadLocal.get();
-		checkCurrentTransactionActive();
-		T currentValue = (T) threadTxInfo.readTxObjectCurrentValue(this);
-		return currentValue;
+		return read(CarlSTM.TxInfoThreadLocal.get());
 	}
 
 	/**
-	 * Change the value of a TxObject inside the transaction, lazy buffer is
-	 * used
+	 * Get the current value of the TxObject inside the given transaction,
+	 * without looking the transaction up
 	 * 
-	 * @param value
+	 * @param context
+	 *            the running transaction, as passed to
+	 *            {@link Transaction#run(TxContext)}
+	 * @return
 	 * @throws NoActiveTransactionException
 	 * @throws TransactionAbortedException
 	 */
-	public void write(T value) throws NoActiveTransactionException, TransactionAbortedException {
-		registerTxObject();
-		TxInfo threadTxInfo = CarlSTM.TxInfoThreadLocal.get();
-		checkCurrentTransactionActive();
-		threadTxInfo.editTxObject(this, value);
+	@SuppressWarnings("unchecked")
+	public T read(TxContext context) throws NoActiveTransactionException, TransactionAbortedException {
+		TxInfo threadTxInfo = activeTxInfo(context);
+		if (threadTxInfo.isReadOnly()) {
+			return (T) threadTxInfo.readSnapshotValue(this);
+		}
+		return (T) threadTxInfo.readTxObject(this);
 	}
 
 	/**
-	 * Helper function to make sure that there is an active transaction running
+	 * Get the value of the TxObject without making the transaction depend on
+	 * it, see {@link TxInfo#peekTxObject}. For hints that the caller checks
+	 * with proper reads, such as the index levels of a {@link TxSkipListMap}.
 	 * 
-	 * @throws NoActiveTransactionException
+	 * @param threadTxInfo
+	 *            the running transaction
+	 * @return
 	 */
-	private void checkCurrentTransactionActive() throws NoActiveTransactionException {
-		TxInfo threadTxInfo = CarlSTM.TxInfoThreadLocal.get();
-		if (!threadTxInfo.currentTransactionActive()) {
-			throw new NoActiveTransactionException();
-		} else {
-			return;
-		}
+	@SuppressWarnings("unchecked")
+	T peek(TxInfo threadTxInfo) {
+		return (T) threadTxInfo.peekTxObject(this);
 	}
 
 	/**
-	 * Register the TxObject with the current thread TxInfo
+	 * Change the value of a TxObject inside the transaction, lazy buffer is
+	 * used
 	 * 
+	 * @param value
+	 * @throws NoActiveTransactionException
+	 * @throws TransactionAbortedException
+	 * @throws ReadOnlyTransactionException
+	 *             if the transaction was started with
+	 *             {@link CarlSTM#executeReadOnly}
 	 */
-	private void registerTxObject() {
-		TxInfo threadTxInfo = CarlSTM.TxInfoThreadLocal.get();
-		if (!threadTxInfo.hasTxObject(this)) {
-			threadTxInfo.addTxObject(this);
-		} else {
-			return;
-		}
+	public void write(T value) throws NoActiveTransactionException, TransactionAbortedException {
+		write(CarlSTM.TxInfoThreadLocal.get(), value);
 	}
 
-	public void lockRead() {
-		readLock.lock();
+	/**
+	 * Change the value of a TxObject inside the given transaction, without
+	 * looking the transaction up
+	 * 
+	 * @param context
+	 *            the running transaction, as passed to
+	 *            {@link Transaction#run(TxContext)}
+	 * @param value
+	 * @throws NoActiveTransactionException
+	 * @throws TransactionAbortedException
+	 * @throws ReadOnlyTransactionException
+	 *             if the transaction was started with
+	 *             {@link CarlSTM#executeReadOnly}
+	 */
+	public void write(TxContext context, T value) throws NoActiveTransactionException, TransactionAbortedException {
+		writableTxInfo(context).writeTxObject(this, value);
 	}
 
-	public boolean tryLockRead() {
-		return readLock.tryLock();
+	@Override
+	Object refValue() {
+		return value;
 	}
 
-	public void releaseRead() {
-		try {
-			readLock.unlock();
-		} catch (IllegalMonitorStateException e) {
+	@Override
+	long bitsValue() {
+		return 0;
+	}
 
+	@SuppressWarnings("unchecked")
+	@Override
+	void publish(Object value, long bits, long previousVersion) {
+		if (historyDepth > 0) {
+			long oldest = ActiveSnapshots.oldest();
+			// Saved before the value changes, so that a reader that sees the
+			// new value also sees the old one in the history
+			history = oldest == Long.MAX_VALUE ? null
+					: trimHistory(new Version(this.value, TxCell.clockOf(previousVersion), history), oldest);
 		}
+		this.value = (T) value;
 	}
 
-	public void lockWrite() {
-		try {
-			writeLock.lock();
-		} catch (Exception e) {
+	/**
+	 * Drop the previous values no running read-only transaction can read:
+	 * everything past the newest value that is not newer than the oldest
+	 * snapshot, and everything past the history depth.
+	 * 
+	 * @param head
+	 *            the history with the value being replaced added
+	 * @param oldest
+	 *            clock value of the oldest active snapshot
+	 * @return the trimmed history
+	 */
+	private Version trimHistory(Version head, long oldest) {
+		Version last = head;
+		for (int depth = 1; depth < historyDepth && last.version > oldest && last.older != null; depth++) {
+			last = last.older;
 		}
+		last.older = null;
+		return head;
 	}
 
-	public void releaseWrite() {
-		try {
-			writeLock.unlock();
-		} catch (Exception e) {
-		}
+	/**
+	 * @return when transactions lock this TxObject if they write it
+	 */
+	public Locking getLocking() {
+		return eagerLocking ? Locking.EAGER : Locking.LAZY;
 	}
 
-	@SuppressWarnings("unchecked")
-	void setValue(Object value) {
-		this.value = (T) value;
+	/**
+	 * Choose when transactions lock this TxObject if they write it. A
+	 * transaction executed with {@link Locking#EAGER} locks it eagerly
+	 * whatever this setting.
+	 * 
+	 * @param locking
+	 *            {@link Locking#LAZY} by default
+	 */
+	public void setLocking(Locking locking) {
+		if (locking == null) {
+			throw new NullPointerException();
+		}
+		eagerLocking = locking == Locking.EAGER;
 	}
 
 	/**
@@ -0,0 +1,173 @@
+package carlstm;
+
+/**
+ * Settings for executing a single transaction with
+ * {@link CarlSTM#execute(Transaction, TxOptions)}. Settings that are left
+ * unset fall back to the defaults configured on {@link CarlSTM}. A transaction
+ * executed inside another one only uses its nesting setting; everything else
+ * is inherited from the outermost transaction. The setters return this
+ * object, so options can be built in one expression:
+ * 
+ * <pre>
+ * CarlSTM.execute(tx, new TxOptions().setMaxRetries(10).setContentionManager(new KarmaContentionManager()));
+ * </pre>
+ */
+public class TxOptions {
+	private ContentionManager contentionManager;
+	private int maxRetries = -1;
+	private int fallbackThreshold = -1;
+	private boolean readOnly;
+	private Nesting nesting = Nesting.FLAT;
+	private Isolation isolation = Isolation.SERIALIZABLE;
+	private Locking locking = Locking.LAZY;
+
+	/**
+	 * @return the contention manager for the transaction, or null to use
+	 *         {@link CarlSTM#getContentionManager()}
+	 */
+	public ContentionManager getContentionManager() {
+		return contentionManager;
+	}
+
+	/**
+	 * @param contentionManager
+	 *            the contention manager for the transaction, or null to use
+	 *            {@link CarlSTM#getContentionManager()}
+	 * @return this
+	 */
+	public TxOptions setContentionManager(ContentionManager contentionManager) {
+		this.contentionManager = contentionManager;
+		return this;
+	}
+
+	/**
+	 * @return the number of times the transaction may be retried after
+	 *         aborting, or -1 to use {@link CarlSTM#getMaxRetries()}
+	 */
+	public int getMaxRetries() {
+		return maxRetries;
+	}
+
+	/**
+	 * @param maxRetries
+	 *            the number of times the transaction may be retried after
+	 *            aborting, or -1 to use {@link CarlSTM#getMaxRetries()}
+	 * @return this
+	 */
+	public TxOptions setMaxRetries(int maxRetries) {
+		if (maxRetries < -1) {
+			throw new IllegalArgumentException("maxRetries: " + maxRetries);
+		}
+		this.maxRetries = maxRetries;
+		return this;
+	}
+
+	/**
+	 * @return the number of aborts after which the transaction runs
+	 *         irrevocably, or -1 to use {@link CarlSTM#getFallbackThreshold()}
+	 */
+	public int getFallbackThreshold() {
+		return fallbackThreshold;
+	}
+
+	/**
+	 * @param fallbackThreshold
+	 *            the number of aborts after which the transaction runs
+	 *            irrevocably, or -1 to use
+	 *            {@link CarlSTM#getFallbackThreshold()}
+	 * @return this
+	 * @see CarlSTM#setFallbackThreshold(int)
+	 */
+	public TxOptions setFallbackThreshold(int fallbackThreshold) {
+		if (fallbackThreshold < -1) {
+			throw new IllegalArgumentException("fallbackThreshold: " + fallbackThreshold);
+		}
+		this.fallbackThreshold = fallbackThreshold;
+		return this;
+	}
+
+	/**
+	 * @return true if the transaction is declared read-only
+	 * @see CarlSTM#executeReadOnly(Transaction)
+	 */
+	public boolean isReadOnly() {
+		return readOnly;
+	}
+
+	/**
+	 * @param readOnly
+	 *            true to declare the transaction read-only
+	 * @return this
+	 * @see CarlSTM#executeReadOnly(Transaction)
+	 */
+	public TxOptions setReadOnly(boolean readOnly) {
+		this.readOnly = readOnly;
+		return this;
+	}
+
+	/**
+	 * @return how the transaction is nested when executed inside another
+	 *         transaction
+	 */
+	public Nesting getNesting() {
+		return nesting;
+	}
+
+	/**
+	 * @param nesting
+	 *            how the transaction is nested when executed inside another
+	 *            transaction; {@link Nesting#FLAT} by default
+	 * @return this
+	 */
+	public TxOptions setNesting(Nesting nesting) {
+		if (nesting == null) {
+			throw new NullPointerException();
+		}
+		this.nesting = nesting;
+		return this;
+	}
+
+	/**
+	 * @return isolation level of the transaction
+	 */
+	public Isolation getIsolation() {
+		return isolation;
+	}
+
+	/**
+	 * @param isolation
+	 *            isolation level of the transaction;
+	 *            {@link Isolation#SERIALIZABLE} by default
+	 * @return this
+	 */
+	public TxOptions setIsolation(Isolation isolation) {
+		if (isolation == null) {
+			throw new NullPointerException();
+		}
+		this.isolation = isolation;
+		return this;
+	}
+
+	/**
+	 * @return when the transaction locks the TxObjects it writes
+	 */
+	public Locking getLocking() {
+		return locking;
+	}
+
+	/**
+	 * @param locking
+	 *            when the transaction locks the TxObjects it writes;
+	 *            {@link Locking#LAZY} by default. TxObjects set to
+	 *            {@link Locking#EAGER} with {@link TxObject#setLocking} are
+	 *            locked eagerly whatever this setting.
+	 * @return this
+	 */
+	public TxOptions setLocking(Locking locking) {
+		if (locking == null) {
+			throw new NullPointerException();
+		}
+		this.locking = locking;
+		return this;
+	}
+}
@@ -0,0 +1,58 @@
+package carlstm;
+
+import java.util.Arrays;
+
+/**
+ * The cells a transaction read without writing them, each with the lock word
+ * it had when it was read. Reads are only appended, never looked up, so a
+ * cell read several times may appear several times; validation checks every
+ * appearance. Like {@link TxAccessSet}, the log is cleared rather than
+ * reallocated between transactions.
+ */
+final class TxReadLog {
+	private static final int INITIAL_CAPACITY = 16;
+
+	private TxCell[] cells = new TxCell[INITIAL_CAPACITY];
+	private long[] versions = new long[INITIAL_CAPACITY];
+	private int size;
+
+	/**
+	 * @return number of reads in the log
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Record a read
+	 *
+	 * @param cell
+	 * @param version
+	 *            lock word of the cell when it was read
+	 */
+	void add(TxCell cell, long version) {
+		if (size == cells.length) {
+			cells = Arrays.copyOf(cells, size * 2);
+			versions = Arrays.copyOf(versions, size * 2);
+		}
+		cells[size] = cell;
+		versions[size] = version;
+		size++;
+	}
+
+	TxCell cell(int i) {
+		return cells[i];
+	}
+
+	long version(int i) {
+		return versions[i];
+	}
+
+	/**
+	 * Empty the log, dropping the references it holds
+	 */
+	void clear() {
+		Arrays.fill(cells, 0, size, null);
+		size = 0;
+	}
+}
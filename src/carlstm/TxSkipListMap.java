@@ -0,0 +1,466 @@
+package carlstm;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * A transactional sorted map. Every method must be called inside a
+ * transaction and takes part in it, so lookups, range scans and updates of one
+ * or more maps commit or abort together: a scan sees either all or none of
+ * each concurrent transaction's updates.
+ *
+ * The map is a skip list whose links are {@link TxObject}s. Walking the whole
+ * list from the top would make every operation read the links near the head,
+ * so that any insertion there would abort all concurrent operations. Instead
+ * an update transaction descends the upper levels by peeking at the links,
+ * without reading them, and only reads the links around its own key: the node
+ * it lands on at each level it needs and the links from there up to the key.
+ * Two insertions therefore only conflict if they link into the same gap at
+ * some level, and an insertion only conflicts with the removal of one of its
+ * neighbours. A removal writes the links of the removed node as well as those
+ * pointing to it, so that these conflicts are write-write conflicts and are
+ * also caught under {@link Isolation#SNAPSHOT}. A node that turns out to have been removed sends the descent
+ * back to the head; after a couple of such restarts the descent reads every
+ * link it follows. Read-only and {@link Isolation#SNAPSHOT} transactions read
+ * a snapshot and always descend with reads, which does not make them
+ * conflict with anything.
+ *
+ * The size is a {@link TxCounter}, read only by {@link #size()}.
+ *
+ * Keys and values must not be null. Keys are ordered by the comparator given
+ * to the constructor, or else by their natural ordering.
+ *
+ * @param <K>
+ *            type of the keys
+ * @param <V>
+ *            type of the values
+ */
+public final class TxSkipListMap<K, V> {
+	private static final int MAX_LEVEL = 32;
+	// Peeking descents started over before reading every link
+	private static final int PEEKING_DESCENTS = 2;
+
+	private static final class Node<K> {
+		// Null for the head
+		final K key;
+		final TxObject<Object> value;
+		final TxObject<Node<K>>[] next;
+		// Set to 1 when the node is removed. The links of a removed node are
+		// kept, so that a descent peeking at them still gets somewhere.
+		final TxInt removed = new TxInt(0);
+
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		Node(K key, Object value, Node<K>[] successors, int height) {
+			this.key = key;
+			this.value = new TxObject<Object>(value);
+			next = new TxObject[height];
+			for (int level = 0; level < height; level++) {
+				next[level] = new TxObject<Node<K>>(successors == null ? null : successors[level]);
+			}
+		}
+	}
+
+	private final Comparator<? super K> comparator;
+	private final Node<K> head = new Node<K>(null, null, null, MAX_LEVEL);
+	// Number of levels any node has been given. Not transactional: it only
+	// grows, and a level that is in fact empty only costs a step.
+	private final AtomicInteger levels = new AtomicInteger(1);
+	private final TxCounter size = new TxCounter();
+
+	/**
+	 * Create an empty map ordered by the natural ordering of its keys
+	 */
+	public TxSkipListMap() {
+		this(null);
+	}
+
+	/**
+	 * Create an empty map
+	 *
+	 * @param comparator
+	 *            order of the keys, or null for their natural ordering
+	 */
+	public TxSkipListMap(Comparator<? super K> comparator) {
+		this.comparator = comparator;
+	}
+
+	/**
+	 * Get the value of a key inside the transaction
+	 *
+	 * @param key
+	 * @return its value, or null if the key is absent
+	 * @throws NoActiveTransactionException
+	 * @throws TransactionAbortedException
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(K key) throws NoActiveTransactionException, TransactionAbortedException {
+		Node<K> node = find(key);
+		return node == null ? null : (V) node.value.read();
+	}
+
+	/**
+	 * @param key
+	 * @return true if the key is in the map
+	 * @throws NoActiveTransactionException
+	 * @throws TransactionAbortedException
+	 */
+	public boolean containsKey(K key) throws NoActiveTransactionException, TransactionAbortedException {
+		return find(key) != null;
+	}
+
+	/**
+	 * Map a key to a value inside the transaction
+	 *
+	 * @param key
+	 * @param value
+	 * @return the previous value of the key, or null if it was absent
+	 * @throws NoActiveTransactionException
+	 * @throws TransactionAbortedException
+	 */
+	public V put(K key, V value) throws NoActiveTransactionException, TransactionAbortedException {
+		return put(key, value, true);
+	}
+
+	/**
+	 * Map a key to a value inside the transaction, unless the key is already
+	 * present
+	 *
+	 * @param key
+	 * @param value
+	 * @return the current value of the key, or null if it was absent and is
+	 *         now mapped to the given value
+	 * @throws NoActiveTransactionException
+	 * @throws TransactionAbortedException
+	 */
+	public V putIfAbsent(K key, V value) throws NoActiveTransactionException, TransactionAbortedException {
+		return put(key, value, false);
+	}
+
+	@SuppressWarnings("unchecked")
+	private V put(K key, V value, boolean replace) throws NoActiveTransactionException, TransactionAbortedException {
+		if (key == null || value == null) {
+			throw new NullPointerException();
+		}
+		int height = randomHeight();
+		Node<K>[] preds = newNodes(levels.accumulateAndGet(height, Math::max));
+		Node<K>[] succs = newNodes(preds.length);
+		locate(key, preds, succs, 1);
+		Node<K> found = succs[0];
+		if (found != null && compare(found.key, key) == 0) {
+			V old = (V) found.value.read();
+			if (replace) {
+				found.value.write(value);
+			}
+			return old;
+		}
+		if (height > 1 && !settle(key, preds, succs, 1, height)) {
+			locate(key, preds, succs, height);
+		}
+		Node<K> node = new Node<K>(key, value, succs, height);
+		for (int level = 0; level < height; level++) {
+			preds[level].next[level].write(node);
+		}
+		size.increment();
+		return null;
+	}
+
+	/**
+	 * Remove a key inside the transaction
+	 *
+	 * @param key
+	 * @return its value, or null if it was absent
+	 * @throws NoActiveTransactionException
+	 * @throws TransactionAbortedException
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(K key) throws NoActiveTransactionException, TransactionAbortedException {
+		Node<K>[] preds = newNodes(levels.get());
+		Node<K>[] succs = newNodes(preds.length);
+		locate(key, preds, succs, 1);
+		Node<K> victim = succs[0];
+		if (victim == null || compare(victim.key, key) != 0) {
+			return null;
+		}
+		// A node is only ever linked below the number of levels at the time,
+		// so preds is tall enough
+		int height = victim.next.length;
+		if (height > 1 && !settle(key, preds, succs, 1, height)) {
+			locate(key, preds, succs, height);
+		}
+		for (int level = 0; level < height; level++) {
+			Node<K> next = victim.next[level].read();
+			preds[level].next[level].write(next);
+			// Written although unchanged, so that an insertion right after
+			// the victim conflicts with its removal even under snapshot
+			// isolation, which only checks writes
+			victim.next[level].write(next);
+		}
+		victim.removed.write(1);
+		size.decrement();
+		return (V) victim.value.read();
+	}
+
+	/**
+	 * @return the smallest key, or null if the map is empty
+	 * @throws NoActiveTransactionException
+	 * @throws TransactionAbortedException
+	 */
+	public K firstKey() throws NoActiveTransactionException, TransactionAbortedException {
+		Node<K> first = head.next[0].read();
+		return first == null ? null : first.key;
+	}
+
+	/**
+	 * @return the largest key, or null if the map is empty
+	 * @throws NoActiveTransactionException
+	 * @throws TransactionAbortedException
+	 */
+	public K lastKey() throws NoActiveTransactionException, TransactionAbortedException {
+		return lowerKey(null);
+	}
+
+	/**
+	 * @param key
+	 * @return the largest key smaller than or equal to the given key, or null
+	 *         if there is none
+	 * @throws NoActiveTransactionException
+	 * @throws TransactionAbortedException
+	 */
+	public K floorKey(K key) throws NoActiveTransactionException, TransactionAbortedException {
+		Node<K>[] preds = newNodes(levels.get());
+		Node<K>[] succs = newNodes(preds.length);
+		locate(key, preds, succs, 1);
+		if (succs[0] != null && compare(succs[0].key, key) == 0) {
+			return succs[0].key;
+		}
+		return preds[0].key;
+	}
+
+	/**
+	 * @param key
+	 * @return the largest key strictly smaller than the given key, or null if
+	 *         there is none
+	 * @throws NoActiveTransactionException
+	 * @throws TransactionAbortedException
+	 */
+	public K lowerKey(K key) throws NoActiveTransactionException, TransactionAbortedException {
+		Node<K>[] preds = newNodes(levels.get());
+		locate(key, preds, newNodes(preds.length), 1);
+		return preds[0].key;
+	}
+
+	/**
+	 * @param key
+	 * @return the smallest key greater than or equal to the given key, or null
+	 *         if there is none
+	 * @throws NoActiveTransactionException
+	 * @throws TransactionAbortedException
+	 */
+	public K ceilingKey(K key) throws NoActiveTransactionException, TransactionAbortedException {
+		Node<K> node = ceiling(key);
+		return node == null ? null : node.key;
+	}
+
+	/**
+	 * @param key
+	 * @return the smallest key strictly greater than the given key, or null if
+	 *         there is none
+	 * @throws NoActiveTransactionException
+	 * @throws TransactionAbortedException
+	 */
+	public K higherKey(K key) throws NoActiveTransactionException, TransactionAbortedException {
+		Node<K> node = ceiling(key);
+		if (node != null && compare(node.key, key) == 0) {
+			node = node.next[0].read();
+		}
+		return node == null ? null : node.key;
+	}
+
+	/**
+	 * Get the entries of a range of keys, in order. The range is read inside
+	 * the transaction, so no key can be added to or removed from it before the
+	 * transaction commits.
+	 *
+	 * @param fromKey
+	 *            smallest key of the range, or null to start with the first key
+	 * @param toKey
+	 *            key the range stops before, or null to go on to the last key
+	 * @return immutable entries of the range
+	 * @throws NoActiveTransactionException
+	 * @throws TransactionAbortedException
+	 */
+	public List<Map.Entry<K, V>> entries(K fromKey, K toKey)
+			throws NoActiveTransactionException, TransactionAbortedException {
+		List<Map.Entry<K, V>> entries = new ArrayList<Map.Entry<K, V>>();
+		forEach(fromKey, toKey, (key, value) -> entries.add(new AbstractMap.SimpleImmutableEntry<K, V>(key, value)));
+		return entries;
+	}
+
+	/**
+	 * Pass the entries of a range of keys to an action, in order, see
+	 * {@link #entries(Object, Object)}
+	 *
+	 * @param fromKey
+	 *            smallest key of the range, or null to start with the first key
+	 * @param toKey
+	 *            key the range stops before, or null to go on to the last key
+	 * @param action
+	 * @throws NoActiveTransactionException
+	 * @throws TransactionAbortedException
+	 */
+	@SuppressWarnings("unchecked")
+	public void forEach(K fromKey, K toKey, BiConsumer<? super K, ? super V> action)
+			throws NoActiveTransactionException, TransactionAbortedException {
+		Node<K> node = fromKey == null ? head.next[0].read() : ceiling(fromKey);
+		while (node != null && (toKey == null || compare(node.key, toKey) < 0)) {
+			action.accept(node.key, (V) node.value.read());
+			node = node.next[0].read();
+		}
+	}
+
+	/**
+	 * Pass every entry to an action, in order
+	 *
+	 * @param action
+	 * @throws NoActiveTransactionException
+	 * @throws TransactionAbortedException
+	 */
+	public void forEach(BiConsumer<? super K, ? super V> action)
+			throws NoActiveTransactionException, TransactionAbortedException {
+		forEach(null, null, action);
+	}
+
+	/**
+	 * Get the number of keys inside the transaction. This reads every stripe
+	 * of the size counter, so the transaction conflicts with every concurrent
+	 * insertion or removal.
+	 *
+	 * @return number of keys
+	 * @throws NoActiveTransactionException
+	 * @throws TransactionAbortedException
+	 */
+	public int size() throws NoActiveTransactionException, TransactionAbortedException {
+		return (int) size.get();
+	}
+
+	/**
+	 * Unlike {@link #size()}, only conflicts with changes to the first key
+	 *
+	 * @return true if the map has no keys
+	 * @throws NoActiveTransactionException
+	 * @throws TransactionAbortedException
+	 */
+	public boolean isEmpty() throws NoActiveTransactionException, TransactionAbortedException {
+		return head.next[0].read() == null;
+	}
+
+	@SuppressWarnings("unchecked")
+	private int compare(K a, K b) {
+		return comparator != null ? comparator.compare(a, b) : ((Comparable<? super K>) a).compareTo(b);
+	}
+
+	/**
+	 * @param key
+	 *            null for a key after every other
+	 * @return true if the node, which is not the head, comes before the key
+	 */
+	private boolean before(Node<K> node, K key) {
+		return key == null || compare(node.key, key) < 0;
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static <K> Node<K>[] newNodes(int length) {
+		return new Node[length];
+	}
+
+	// Each level is a quarter as likely as the one below
+	private static int randomHeight() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int height = 1;
+		while (height < MAX_LEVEL && random.nextInt(4) == 0) {
+			height++;
+		}
+		return height;
+	}
+
+	/**
+	 * @return the node of the smallest key greater than or equal to the given
+	 *         key, or null if there is none
+	 */
+	private Node<K> find(K key) throws NoActiveTransactionException, TransactionAbortedException {
+		Node<K> node = ceiling(key);
+		return node != null && compare(node.key, key) == 0 ? node : null;
+	}
+
+	private Node<K> ceiling(K key) throws NoActiveTransactionException, TransactionAbortedException {
+		Node<K>[] succs = newNodes(levels.get());
+		locate(key, newNodes(succs.length), succs, 1);
+		return succs[0];
+	}
+
+	/**
+	 * Find, at each of the lowest levels, the last node before a key and the
+	 * node after it, reading the links between them
+	 *
+	 * @param key
+	 *            null for a key after every other
+	 * @param preds
+	 *            filled with the nodes before the key, its length being the
+	 *            number of levels to descend
+	 * @param succs
+	 *            filled with the nodes after them
+	 * @param height
+	 *            number of levels to read
+	 */
+	private void locate(K key, Node<K>[] preds, Node<K>[] succs, int height)
+			throws NoActiveTransactionException, TransactionAbortedException {
+		TxInfo threadTxInfo = TxCell.activeTxInfo(CarlSTM.TxInfoThreadLocal.get());
+		boolean peek = !threadTxInfo.readsSnapshot();
+		for (int descents = 0;; descents++) {
+			boolean reading = !peek || descents >= PEEKING_DESCENTS;
+			Node<K> pred = head;
+			for (int level = preds.length - 1; level >= 0; level--) {
+				Node<K> next = reading ? pred.next[level].read() : pred.next[level].peek(threadTxInfo);
+				while (next != null && before(next, key)) {
+					pred = next;
+					next = reading ? pred.next[level].read() : pred.next[level].peek(threadTxInfo);
+				}
+				preds[level] = pred;
+				succs[level] = next;
+			}
+			if (reading || settle(key, preds, succs, 0, height)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Check that the nodes a descent found at some levels are still in the
+	 * map, and walk on from them with reads to the last node before the key
+	 *
+	 * @return false if one of the nodes was removed
+	 */
+	private boolean settle(K key, Node<K>[] preds, Node<K>[] succs, int from, int to)
+			throws NoActiveTransactionException, TransactionAbortedException {
+		for (int level = from; level < to; level++) {
+			Node<K> pred = preds[level];
+			if (pred != head && pred.removed.read() != 0) {
+				return false;
+			}
+			Node<K> next = pred.next[level].read();
+			while (next != null && before(next, key)) {
+				pred = next;
+				next = pred.next[level].read();
+			}
+			preds[level] = pred;
+			succs[level] = next;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,36 @@
+package carlstm;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The global version clock shared by all transactions. Every transaction
+ * samples the clock when it starts (its read version) and every writing
+ * transaction advances it exactly once when it commits (its write version).
+ * Each {@link TxObject} is stamped with the write version of the last commit
+ * that changed it, so a reader can tell whether an object changed since it was
+ * read by comparing version numbers instead of values.
+ */
+final class VersionClock {
+	private static final AtomicLong clock = new AtomicLong(0);
+
+	private VersionClock() {
+	}
+
+	/**
+	 * Sample the current clock value
+	 *
+	 * @return the version of the most recent commit
+	 */
+	static long read() {
+		return clock.get();
+	}
+
+	/**
+	 * Advance the clock for a committing transaction
+	 *
+	 * @return the write version of the committing transaction
+	 */
+	static long tick() {
+		return clock.incrementAndGet();
+	}
+}
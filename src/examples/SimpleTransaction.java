@@ -4,14 +4,15 @@ import carlstm.CarlSTM;
 import carlstm.NoActiveTransactionException;
 import carlstm.Transaction;
 import carlstm.TransactionAbortedException;
+import carlstm.TxInt;
 import carlstm.TxObject;
 
 /**
  * A simple example of a program that uses CarlSTM for synchronization.
  */
 public class SimpleTransaction {
-	// Create a transactional object that holds an integer.
-	private static TxObject<Integer> x = new TxObject<Integer>(0);
+	// Create a transactional cell that holds an integer.
+	private static TxInt x = new TxInt(0);
 	private static TxObject<String> y = new TxObject<String>("a");
 
 	/**
@@ -26,15 +27,16 @@ public class SimpleTransaction {
 		 */
 		@Override
 		public Integer run() throws NoActiveTransactionException, TransactionAbortedException {
-			// This print may happen more than once if the transaction aborts
-			// and restarts.
+			// The prints below would happen more than once if the
+			// transaction aborted and restarted; MyThread executes it
+			// irrevocably so that they happen exactly once.
 
 			// This loop repeatedly reads and writes a TxObject. The read and
 			// write operations should all behave as if the entire transaction
 			// happened exactly once, and as if there were no
 			// intervening reads or writes from other threads.
 			for (int i = 0; i < 5; i++) {
-				Integer val = x.read();
+				int val = x.read();
 				// String valy = y.read();
 				x.write(val + 1);
 				// y.write(valy+valy);
@@ -58,7 +60,7 @@ public class SimpleTransaction {
 		 */
 		@Override
 		public void run() {
-			Integer result = CarlSTM.execute(new MyTransaction());
+			Integer result = CarlSTM.executeIrrevocable(new MyTransaction());
 			// Should print 5 or 10, depending on which thread went first.
 			if (result != null) {
 				System.out.println(Thread.currentThread().getName() + "x: " + result);
@@ -57,26 +57,53 @@ public class TxHashSet<T> implements Set<T> {
 	/**
 	 * Create a new HashSet.
 	 */
-	@SuppressWarnings("unchecked")
 	public TxHashSet() {
+		this(Locking.LAZY);
+	}
+
+	/**
+	 * Create a new HashSet whose buckets are locked as given when written.
+	 * 
+	 * @param locking
+	 *            when an add locks the bucket it changes
+	 */
+	public TxHashSet(Locking locking) {
+		this(locking, 0);
+	}
+
+	/**
+	 * Create a new HashSet whose buckets keep previous values. Keeping them
+	 * lets {@link #size()} read every bucket as of one snapshot while other
+	 * threads add items, but makes every read-only transaction announce its
+	 * snapshot and every add save the value it replaces.
+	 * 
+	 * @param locking
+	 *            when an add locks the bucket it changes
+	 * @param historyDepth
+	 *            number of previous values each bucket keeps; 0 keeps none
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public TxHashSet(Locking locking, int historyDepth) {
 		this.table = new TxObject[CAPACITY];
 		// Initialize the TxObject's
 		for (int i = 0; i < table.length; i++) {
-			table[i] = new TxObject<Bucket>(null);
+			table[i] = new TxObject<Bucket>(null, historyDepth);
+			table[i].setLocking(locking);
+			table[i].setLabel("TxHashSet bucket " + i);
 		}
 
 	}
 
 	/**
-	 * A helper method wrapped by transaction to see if a bucket has a given
-	 * item
+	 * A helper method wrapped by a read-only transaction to see if a bucket has
+	 * a given item
 	 * 
 	 * @param bucketTxObject
 	 * @param item
 	 * @return
 	 */
 	private boolean contains(TxObject<Bucket> bucketTxObject, T item) {
-		Boolean result = CarlSTM.execute(new Transaction<Boolean>() {
+		Boolean result = CarlSTM.executeReadOnly(new Transaction<Boolean>() {
 			@Override
 			public Boolean run() throws NoActiveTransactionException, TransactionAbortedException {
 				Bucket bucket = (Bucket) bucketTxObject.read();
@@ -103,22 +130,21 @@ public class TxHashSet<T> implements Set<T> {
 		// the negative number to a location in the array.
 		int hash = (item.hashCode() % CAPACITY + CAPACITY) % CAPACITY;
 		TxObject<Bucket> bucketTxObject = table[hash];
-		// the query is a transaction
-		if (contains(bucketTxObject, item)) {
-			return false;
-		} else {
-			// the insertion is a transaction
-			Boolean result = CarlSTM.execute(new Transaction<Boolean>() {
-				@Override
-				public Boolean run() throws NoActiveTransactionException, TransactionAbortedException {
-					Bucket bucket = (Bucket) bucketTxObject.read();
-					bucket = new Bucket(item, bucket);
-					bucketTxObject.write(bucket);
-					return true;
+		// the query and the insertion are one transaction: the query is
+		// nested in it, so no other thread can add the item in between
+		Boolean result = CarlSTM.execute(new Transaction<Boolean>() {
+			@Override
+			public Boolean run() throws NoActiveTransactionException, TransactionAbortedException {
+				if (contains(bucketTxObject, item)) {
+					return false;
 				}
-			});
-			return result;
-		}
+				Bucket bucket = (Bucket) bucketTxObject.read();
+				bucket = new Bucket(item, bucket);
+				bucketTxObject.write(bucket);
+				return true;
+			}
+		});
+		return result;
 	}
 
 	/*
@@ -133,6 +159,28 @@ public class TxHashSet<T> implements Set<T> {
 		return contains(bucketTxObject, item);
 	}
 
+	/**
+	 * Count the items in the set. The count is taken over a single consistent
+	 * snapshot of every bucket. Unless the buckets keep previous values, it is
+	 * retried whenever another thread adds an item meanwhile.
+	 * 
+	 * @return number of items in the set
+	 */
+	public int size() {
+		return CarlSTM.executeReadOnly(new Transaction<Integer>() {
+			@Override
+			public Integer run() throws NoActiveTransactionException, TransactionAbortedException {
+				int size = 0;
+				for (int i = 0; i < table.length; i++) {
+					for (Bucket bucket = table[i].read(); bucket != null; bucket = bucket.next) {
+						size++;
+					}
+				}
+				return size;
+			}
+		});
+	}
+
 	/**
 	 * test the class with multithreading
 	 */
@@ -155,6 +203,9 @@ public class TxHashSet<T> implements Set<T> {
 				System.out.printf("Still missing %d\n", i);
 			}
 		}
+		if (c.size() != 6000 * NUM_THREADS) {
+			System.out.printf("Wrong size %d\n", c.size());
+		}
 		// long endTime = System.currentTimeMillis();
 		// System.out.println(endTime - startTime);
 	}
@@ -183,7 +234,7 @@ public class TxHashSet<T> implements Set<T> {
 					System.out.printf("%d is missing\n", i);
 				}
 			}
-			CarlSTM.getCounts();
+			System.out.println(Thread.currentThread().getName() + " " + StmStatistics.currentThread());
 		}
 	}
 }
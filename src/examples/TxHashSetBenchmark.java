@@ -0,0 +1,65 @@
+package examples;
+
+import carlstm.ConflictProfiler;
+import carlstm.Locking;
+
+/**
+ * Compare lazy and eager locking on a {@link TxHashSet}. Each thread adds its
+ * own range of items, so the threads only conflict on the buckets they share.
+ * With "profile" as the last argument, also print the buckets that caused the
+ * most aborts.
+ * 
+ * Usage: TxHashSetBenchmark [threads] [items per thread] [rounds] [profile]
+ */
+public class TxHashSetBenchmark {
+
+	public static void main(String[] args) throws InterruptedException {
+		int numThreads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+		int itemsPerThread = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+		int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+		boolean profile = args.length > 3 && args[3].equals("profile");
+		if (profile) {
+			ConflictProfiler.start(1);
+		}
+		for (int round = 0; round < rounds; round++) {
+			for (Locking locking : Locking.values()) {
+				long time = run(locking, numThreads, itemsPerThread);
+				System.out.printf("round %d %-5s %8.1f ms%n", round, locking, time / 1e6);
+			}
+		}
+		if (profile) {
+			ConflictProfiler.stop();
+			ConflictProfiler.printHotspots(System.out, 5);
+		}
+	}
+
+	/**
+	 * Fill a new set from several threads
+	 * 
+	 * @return elapsed time in nanoseconds
+	 */
+	private static long run(Locking locking, int numThreads, int itemsPerThread) throws InterruptedException {
+		TxHashSet<Integer> set = new TxHashSet<Integer>(locking);
+		Thread[] threads = new Thread[numThreads];
+		for (int j = 0; j < numThreads; j++) {
+			int low = j * itemsPerThread;
+			threads[j] = new Thread(() -> {
+				for (int i = low; i < low + itemsPerThread; i++) {
+					set.add(i);
+				}
+			});
+		}
+		long start = System.nanoTime();
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		long time = System.nanoTime() - start;
+		if (set.size() != numThreads * itemsPerThread) {
+			System.out.printf("%s: wrong size %d%n", locking, set.size());
+		}
+		return time;
+	}
+}
@@ -0,0 +1,27 @@
+package carlstm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import org.junit.jupiter.api.Test;
+
+public class EagerLockingTest {
+
+	@Test
+	public void rolledBackEagerWriteIsUnlockedAtCommit() {
+		TxObject<Integer> x = new TxObject<Integer>(0);
+		x.setLocking(Locking.EAGER);
+		String result = CarlSTM.execute(() -> CarlSTM.orElse(() -> {
+			x.write(1);
+			CarlSTM.retry();
+			return "first";
+		}, () -> "second"));
+		assertEquals("second", result);
+		assertFalse(TxCell.isLocked(x.getVersionLock()));
+		CarlSTM.execute(() -> {
+			x.write(2);
+			return null;
+		});
+		assertEquals(2, (int) CarlSTM.executeReadOnly(() -> x.read()));
+	}
+}
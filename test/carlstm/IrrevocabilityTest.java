@@ -0,0 +1,109 @@
+package carlstm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+public class IrrevocabilityTest {
+
+	/**
+	 * An eager lock holder reaching its commit while an irrevocable
+	 * transaction waits for a committer that waits for that lock
+	 */
+	@Test
+	public void eagerLockHolderDoesNotWaitForIrrevocable() throws InterruptedException {
+		TxObject<Integer> y = new TxObject<Integer>(0);
+		TxObject<Integer> z = new TxObject<Integer>(0);
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch written = new CountDownLatch(1);
+		CountDownLatch locked = new CountDownLatch(1);
+		AtomicBoolean firstAttempt = new AtomicBoolean(true);
+		AtomicReference<TxInfo> committer = new AtomicReference<TxInfo>();
+		AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+		// Older: once the younger transaction has buffered its write, locks
+		// y eagerly, then commits once the irrevocable transaction holds its
+		// turn
+		Thread holder = thread(failure, () -> CarlSTM.execute(() -> {
+			if (firstAttempt.getAndSet(false)) {
+				started.countDown();
+				await(written);
+				y.write(1);
+				locked.countDown();
+				while (!Irrevocability.heldByOther(null)) {
+					Thread.onSpinWait();
+				}
+			} else {
+				y.write(1);
+			}
+			return null;
+		}, new TxOptions().setContentionManager(new GreedyContentionManager()).setLocking(Locking.EAGER)));
+		holder.start();
+		started.await();
+
+		// Younger: waits for y while announced as committing
+		Thread waiter = thread(failure, () -> CarlSTM.execute(() -> {
+			y.write(2);
+			if (committer.compareAndSet(null, CarlSTM.TxInfoThreadLocal.get())) {
+				written.countDown();
+				await(locked);
+			}
+			return null;
+		}, new GreedyContentionManager()));
+		waiter.start();
+		while (committer.get() == null || !committer.get().inCommit) {
+			Thread.onSpinWait();
+		}
+
+		// Waits for the younger transaction's commit
+		Thread irrevocable = thread(failure, () -> CarlSTM.executeIrrevocable(() -> {
+			z.write(1);
+			return null;
+		}));
+		irrevocable.start();
+
+		for (Thread thread : new Thread[] { holder, waiter, irrevocable }) {
+			thread.join(5000);
+			assertFalse(thread.isAlive(), "deadlocked");
+		}
+		assertNull(failure.get());
+		assertEquals(1, (int) CarlSTM.executeReadOnly(() -> z.read()));
+	}
+
+	@Test
+	public void staleKillDoesNotAbortIrrevocableAttempt() throws TransactionAlreadyActiveException {
+		TxInfo txInfo = new TxInfo();
+		ContentionManager contentionManager = new PoliteContentionManager();
+		txInfo.start(false, Isolation.SERIALIZABLE, Locking.LAZY, contentionManager, true);
+		long seen = txInfo.getStatus();
+		txInfo.abort();
+		txInfo.startIrrevocable(false, contentionManager, false);
+		long current = txInfo.getStatus();
+		txInfo.kill(null, seen);
+		assertEquals(current, txInfo.getStatus());
+		txInfo.kill(null, current);
+		assertEquals(current, txInfo.getStatus());
+		txInfo.abort();
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static Thread thread(AtomicReference<Throwable> failure, Runnable body) {
+		Thread thread = new Thread(body);
+		thread.setDaemon(true);
+		thread.setUncaughtExceptionHandler((t, e) -> failure.set(e));
+		return thread;
+	}
+}
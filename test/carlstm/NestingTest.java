@@ -0,0 +1,73 @@
+package carlstm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+public class NestingTest {
+
+	@Test
+	public void orElseRunsSecondWhenNestedTransactionRetries() {
+		TxObject<Integer> x = new TxObject<Integer>(0);
+		String result = assertTimeoutPreemptively(Duration.ofSeconds(5),
+				() -> CarlSTM.execute(() -> CarlSTM.orElse(() -> {
+					CarlSTM.execute(() -> {
+						if (x.read() == 0) {
+							CarlSTM.retry();
+						}
+						return null;
+					});
+					return "first";
+				}, () -> "second")));
+		assertEquals("second", result);
+	}
+
+	@Test
+	public void caughtNestedAbortDoesNotCommit() {
+		TxObject<Integer> y = new TxObject<Integer>(0);
+		AtomicInteger attempts = new AtomicInteger();
+		int committed = CarlSTM.execute(() -> {
+			int attempt = attempts.incrementAndGet();
+			try {
+				CarlSTM.execute(() -> {
+					y.write(attempt);
+					if (attempt == 1) {
+						throw new TransactionAbortedException();
+					}
+					return null;
+				}, new TxOptions().setNesting(Nesting.FLAT));
+			} catch (RuntimeException e) {
+				// Carry on as if the nested transaction had not run
+			}
+			return attempt;
+		});
+		assertEquals(2, committed);
+		assertEquals(2, (int) CarlSTM.executeReadOnly(() -> y.read()));
+	}
+
+	@Test
+	public void errorAbortsTheTransaction() {
+		TxObject<Integer> x = new TxObject<Integer>(0);
+		x.setLocking(Locking.EAGER);
+		assertThrows(AssertionError.class, () -> CarlSTM.execute(() -> {
+			x.write(5);
+			throw new AssertionError();
+		}));
+		assertFalse(TxCell.isLocked(x.getVersionLock()));
+		assertThrows(AssertionError.class, () -> CarlSTM.executeIrrevocable(() -> {
+			x.write(6);
+			throw new AssertionError();
+		}));
+		CarlSTM.execute(() -> {
+			x.write(x.read() + 1);
+			return null;
+		});
+		assertEquals(1, (int) CarlSTM.executeReadOnly(() -> x.read()));
+	}
+}
@@ -0,0 +1,38 @@
+package carlstm;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+public class RetryTest {
+
+	@Test
+	public void interruptWhileRetryingThrows() throws InterruptedException {
+		TxObject<Integer> x = new TxObject<Integer>(0);
+		AtomicReference<Throwable> thrown = new AtomicReference<Throwable>();
+		AtomicReference<Boolean> interrupted = new AtomicReference<Boolean>();
+		Thread waiter = new Thread(() -> {
+			try {
+				CarlSTM.execute(() -> {
+					if (x.read() == 0) {
+						CarlSTM.retry();
+					}
+					return null;
+				});
+			} catch (RuntimeException e) {
+				thrown.set(e);
+			}
+			interrupted.set(Thread.currentThread().isInterrupted());
+		});
+		waiter.start();
+		Thread.sleep(100);
+		waiter.interrupt();
+		waiter.join(5000);
+		assertFalse(waiter.isAlive());
+		assertTrue(thrown.get() instanceof TransactionInterruptedException);
+		assertTrue(interrupted.get());
+	}
+}
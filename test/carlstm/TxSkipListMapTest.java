@@ -0,0 +1,158 @@
+package carlstm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+public class TxSkipListMapTest {
+
+	@Test
+	public void navigation() {
+		TxSkipListMap<Integer, String> map = new TxSkipListMap<Integer, String>();
+		CarlSTM.execute(() -> {
+			for (int key = 0; key < 100; key += 2) {
+				map.put(key, "v" + key);
+			}
+			return null;
+		});
+		CarlSTM.executeReadOnly(() -> {
+			assertEquals(4, (int) map.floorKey(5));
+			assertEquals(6, (int) map.ceilingKey(5));
+			assertEquals(2, (int) map.lowerKey(4));
+			assertEquals(6, (int) map.higherKey(4));
+			assertEquals(0, (int) map.firstKey());
+			assertEquals(98, (int) map.lastKey());
+			assertNull(map.lowerKey(0));
+			assertNull(map.higherKey(98));
+			assertEquals("v10", map.get(10));
+			assertNull(map.get(11));
+			assertEquals(List.of(10, 12, 14), keys(map.entries(10, 16)));
+			assertEquals(50, map.size());
+			return null;
+		});
+		CarlSTM.execute(() -> {
+			for (int key = 0; key < 100; key += 2) {
+				assertEquals("v" + key, map.remove(key));
+			}
+			return null;
+		});
+		CarlSTM.executeReadOnly(() -> {
+			assertTrue(map.isEmpty());
+			assertEquals(0, map.size());
+			assertNull(map.firstKey());
+			assertNull(map.lastKey());
+			return null;
+		});
+	}
+
+	/**
+	 * An insertion after a node that a concurrent transaction removes must not
+	 * both commit, or the new node is linked behind an unreachable one
+	 */
+	@Test
+	public void insertAfterRemovedNodeUnderSnapshotIsolation() throws InterruptedException {
+		TxSkipListMap<Integer, String> map = new TxSkipListMap<Integer, String>();
+		CarlSTM.execute(() -> {
+			map.put(10, "a");
+			map.put(20, "b");
+			return null;
+		});
+		CountDownLatch inserted = new CountDownLatch(1);
+		CountDownLatch removed = new CountDownLatch(1);
+		AtomicBoolean firstAttempt = new AtomicBoolean(true);
+		Thread inserter = new Thread(() -> CarlSTM.execute(() -> {
+			map.put(15, "c");
+			if (firstAttempt.getAndSet(false)) {
+				inserted.countDown();
+				try {
+					removed.await();
+				} catch (InterruptedException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+			return null;
+		}, Isolation.SNAPSHOT));
+		inserter.start();
+		inserted.await();
+		CarlSTM.execute(() -> map.remove(10), Isolation.SNAPSHOT);
+		removed.countDown();
+		inserter.join(5000);
+		assertFalse(inserter.isAlive());
+		CarlSTM.executeReadOnly(() -> {
+			assertEquals(List.of(15, 20), keys(map.entries(null, null)));
+			assertEquals(2, map.size());
+			assertEquals("c", map.get(15));
+			return null;
+		});
+	}
+
+	@Test
+	public void concurrentUpdatesSerializable() throws InterruptedException {
+		concurrentUpdates(Isolation.SERIALIZABLE);
+	}
+
+	@Test
+	public void concurrentUpdatesSnapshot() throws InterruptedException {
+		concurrentUpdates(Isolation.SNAPSHOT);
+	}
+
+	/**
+	 * Insert and remove random keys of a small key space from several threads,
+	 * then check that the list is ordered and agrees with the size and with
+	 * lookups
+	 */
+	private static void concurrentUpdates(Isolation isolation) throws InterruptedException {
+		TxSkipListMap<Integer, Integer> map = new TxSkipListMap<Integer, Integer>();
+		AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread(() -> {
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				for (int n = 0; n < 20000; n++) {
+					int key = random.nextInt(64);
+					if (random.nextBoolean()) {
+						CarlSTM.execute(() -> map.put(key, key), isolation);
+					} else {
+						CarlSTM.execute(() -> map.remove(key), isolation);
+					}
+				}
+			});
+			threads[i].setUncaughtExceptionHandler((t, e) -> failure.set(e));
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertNull(failure.get());
+		CarlSTM.executeReadOnly(() -> {
+			List<Integer> keys = keys(map.entries(null, null));
+			for (int i = 1; i < keys.size(); i++) {
+				assertTrue(keys.get(i - 1) < keys.get(i));
+			}
+			assertEquals(keys.size(), map.size());
+			for (int key = 0; key < 64; key++) {
+				assertEquals(keys.contains(key), map.containsKey(key));
+			}
+			return null;
+		});
+	}
+
+	private static <K, V> List<K> keys(List<Map.Entry<K, V>> entries) {
+		List<K> keys = new ArrayList<K>();
+		for (Map.Entry<K, V> entry : entries) {
+			keys.add(entry.getKey());
+		}
+		return keys;
+	}
+}